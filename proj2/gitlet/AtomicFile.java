@@ -0,0 +1,77 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** Replaces files so that a crash leaves either the whole old content or
+ *  the whole new content, never a file cut short.
+ *
+ *  The new content goes into a temporary file, which is forced to disk and
+ *  then renamed over the file. A rename is atomic, but it only survives a
+ *  crash once the directory holding the file has been forced too, which
+ *  syncDirectory does; the callers that need a file to be durable before
+ *  they go on call it once for all the files they replaced.
+ *
+ *  @author BoLee
+ */
+class AtomicFile {
+    /** Replaces FILE by one holding CONTENT. The temporary file is made in
+     *  the .gitlet directory, so it never shows up among the branches. */
+    static void write(File file, byte[] content) throws IOException {
+        File tmpFile = newTempFile();
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(content);
+            out.getFD().sync();
+        } catch (IOException excp) {
+            tmpFile.delete();
+            throw excp;
+        }
+        move(tmpFile, file);
+    }
+
+    /** Returns a new empty temporary file in the .gitlet directory, whose
+     *  name no other process uses at the same time. */
+    static File newTempFile() throws IOException {
+        return File.createTempFile("tmp-", null, Repository.GITLET_DIR);
+    }
+
+    /** Forces the completely written TMPFILE to disk and renames it over
+     *  FILE. */
+    static void install(File tmpFile, File file) throws IOException {
+        force(tmpFile);
+        move(tmpFile, file);
+    }
+
+    /** Forces the content of FILE to disk. */
+    static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /** Forces the entries of DIR to disk, so the files created, renamed or
+     *  deleted in it stay that way after a crash. Some platforms cannot
+     *  open a directory, and do not need this. */
+    static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Renames TMPFILE over FILE, atomically where the platform can. */
+    static void move(File tmpFile, File file) throws IOException {
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException excp) {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -1,64 +1,378 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 public class Blob implements Serializable {
+    // version 4 blobs no longer store the path of their file,as their id no longer depends on it
+    static final int CODEC_VERSION = 4;
+    static final int CHUNK_CODEC_VERSION = 1;
+    // file content is hashed and copied in chunks of this size,so a file of any size is added with constant memory
+    static final int CHUNK_SIZE = 64 * 1024;
+    // files at least this large are cut into content-defined chunks(see Chunker) that are stored as objects
+    // of their own,so versions of a large file share every chunk that an edit did not touch
+    static final long CHUNKING_THRESHOLD = 4 * 1024 * 1024;
+    // how the content follows the header of a blob object
+    private static final byte INLINE = 0;
+    private static final byte CHUNKED = 1;
+    // how much of a stored object is read to find where its content starts
+    private static final int STORED_HEAD_SIZE = 8 * 1024;
     private String blobID;
-    private byte[] fileContent;
-    private String fileContentInString;
+    // the path of the file this blob was made from,null for a blob read back from a version 4 object
     private String filePath;
-    // when using git add filePath command,invoke Blob constructor to create a Blob object
-    // and save the blob object to .git/object and add the blobID to the index file
-    public Blob(File fileToBeAdded,String filePath) throws IOException {
+    private long size;
+    // only blobs that are kept in memory (those read from an older format) hold their content here,
+    // the content of the others stays in the object store and is streamed from there
+    private byte[] fileContent;
+    // the chunks that make up the content of a chunked blob in order,null for the others
+    private List<String> chunkIDs;
+    private List<Integer> chunkSizes;
+    // when using git rm filePath command,invoke Blob constructor to get the id of the file to be removed
+    public Blob(File fileToBeRemoved,String filePath) throws IOException {
+        this.filePath = filePath;
+        int format = Config.getRepositoryFormat();
         // the file of git rm may not exist
-        if(!fileToBeAdded.isFile()){
-            fileContent = new byte[]{};
-            fileContentInString = "";
-        } else {
-            fileContent = Utils.readContents(fileToBeAdded);
-            fileContentInString = Utils.readContentsAsString(fileToBeAdded);
+        boolean exists = fileToBeRemoved.isFile();
+        MessageDigest md = newBlobDigest(exists ? fileToBeRemoved.length() : 0,format);
+        if(exists){
+            try (InputStream in = new FileInputStream(fileToBeRemoved)) {
+                size = copyContent(in,null,md);
+            }
         }
+        blobID = generateID(md,filePath,format);
+    }
+    // rebuild a blob that has been read back from the object store
+    Blob(String blobID,String filePath,long size){
+        this.blobID = blobID;
         this.filePath = filePath;
-        generateID();
+        this.size = size;
+    }
+    Blob(String blobID,String filePath,byte[] fileContent){
+        this(blobID,filePath,fileContent.length);
+        this.fileContent = fileContent;
+    }
+    // when using git add filePath command,hash the file and write it into .git/object in the same pass,
+    // and return the blob of it
+    public static Blob saveBlobToFile(File fileToBeAdded,String filePath) throws IOException {
+        long size = fileToBeAdded.length();
+        if(size >= CHUNKING_THRESHOLD)return saveChunkedBlob(fileToBeAdded,filePath,size);
+        try (InputStream in = new FileInputStream(fileToBeAdded)) {
+            return new Blob(saveInlineBlob(in,size,filePath,Config.getRepositoryFormat()),filePath,size);
+        }
+    }
+    // hash the size bytes of in and write them into .git/object in the same pass as an inline blob,and return
+    // its id in a repository of the given format;filePath is null when a blob is stored again by migrate
+    private static String saveInlineBlob(InputStream in,long size,String filePath,int format) throws IOException {
+        MessageDigest md = newBlobDigest(size,format);
+        File tmpFile = Repository.createTempObjectFile();
+        // the first chunk tells whether the content is worth compressing at all
+        byte[] firstChunk = in.readNBytes(CHUNK_SIZE);
+        int level = Compression.level();
+        OutputStream stored = new FileOutputStream(tmpFile);
+        if(Compression.isWorthCompressing(firstChunk,firstChunk.length,level)){
+            stored = Compression.compressingStream(stored,level);
+        }
+        long copied;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stored,CHUNK_SIZE))) {
+            ObjectCodec.writeHeader(out,ObjectCodec.TYPE_BLOB,CODEC_VERSION);
+            ObjectCodec.writeVarint(out,size);
+            out.writeByte(INLINE);
+            md.update(firstChunk);
+            out.write(firstChunk);
+            copied = firstChunk.length + copyContent(in,out,md);
+        }
+        // checked once the temporary file is closed,so that it can be deleted
+        if(copied != size){
+            tmpFile.delete();
+            throw Utils.error("File %s changed while it was being added.",filePath);
+        }
+        String blobID = generateID(md,filePath,format);
+        Repository.installObjectFile(tmpFile,blobID);
+        return blobID;
+    }
+    // cut a large file into chunks and store each chunk that is not stored yet,then store the blob itself
+    // as the list of its chunks;the blob id is still the hash of the whole content(and the path,in a repository
+    // that has not been migrated)
+    private static Blob saveChunkedBlob(File fileToBeAdded,String filePath,long size) throws IOException {
+        int format = Config.getRepositoryFormat();
+        MessageDigest md = newBlobDigest(size,format);
+        Blob blob = new Blob(null,filePath,size);
+        blob.chunkIDs = new ArrayList<>();
+        blob.chunkSizes = new ArrayList<>();
+        long chunkedSize = 0;
+        try (InputStream in = new FileInputStream(fileToBeAdded)) {
+            Chunker chunker = new Chunker(in);
+            while(chunker.next()){
+                byte[] buffer = chunker.buffer();
+                int start = chunker.start();
+                int length = chunker.length();
+                md.update(buffer,start,length);
+                String chunkID = saveChunk(buffer,start,length,format);
+                blob.chunkIDs.add(chunkID);
+                blob.chunkSizes.add(length);
+                chunkedSize += length;
+            }
+        }
+        if(chunkedSize != size)throw Utils.error("File %s changed while it was being added.",filePath);
+        blob.blobID = generateID(md,filePath,format);
+        Repository.saveObject(blob.blobID,ObjectCodec.encode(blob));
+        return blob;
+    }
+    // store content that is in no file(the merged version of a file in a virtual merge base) as the blob of filePath
+    public static Blob saveBlobOfContent(byte[] content,String filePath) throws IOException {
+        int format = Config.getRepositoryFormat();
+        MessageDigest md = newBlobDigest(content.length,format);
+        md.update(content);
+        Blob blob = new Blob(generateID(md,filePath,format),filePath,content);
+        if(!Repository.hasObject(blob.blobID))Repository.saveObject(blob.blobID,ObjectCodec.encode(blob));
+        return blob;
+    }
+    // store a chunk of a large file unless it is already stored,and return its id in a repository of the given format
+    private static String saveChunk(byte[] buffer,int start,int length,int format) throws IOException {
+        MessageDigest chunkDigest = Utils.newSha1();
+        if(format >= Config.TYPED_OBJECT_FORMAT)chunkDigest.update(("chunk " + length + "\0").getBytes(StandardCharsets.UTF_8));
+        chunkDigest.update(buffer,start,length);
+        String chunkID = Utils.sha1(chunkDigest);
+        if(!Repository.hasObject(chunkID)){
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(length + ObjectCodec.HEADER_SIZE);
+            DataOutputStream out = new DataOutputStream(stream);
+            ObjectCodec.writeHeader(out,ObjectCodec.TYPE_CHUNK,CHUNK_CODEC_VERSION);
+            out.write(buffer,start,length);
+            Repository.saveObject(chunkID,stream.toByteArray());
+        }
+        return chunkID;
+    }
+    // store the blob blobID of an older repository again under the id it has in Config.TYPED_OBJECT_FORMAT,and
+    // return that id.the content of an inline blob is copied into a new object,the chunks of a chunked blob are
+    // stored again under their own new ids,which newChunkIDs keeps from old to new
+    static String migrate(String blobID,Map<String,String> newChunkIDs) throws IOException {
+        Blob blob = collidedBlob(blobID);
+        if(blob == null)blob = Repository.getObject(blobID,Blob.class);
+        if(blob.chunkIDs == null){
+            try (InputStream in = blob.openContent()) {
+                return saveInlineBlob(in,blob.size,null,Config.TYPED_OBJECT_FORMAT);
+            }
+        }
+        MessageDigest md = newBlobDigest(blob.size,Config.TYPED_OBJECT_FORMAT);
+        Blob migrated = new Blob(null,null,blob.size);
+        migrated.chunkIDs = new ArrayList<>();
+        migrated.chunkSizes = blob.chunkSizes;
+        for(String chunkID : blob.chunkIDs){
+            String newChunkID = newChunkIDs.get(chunkID);
+            byte[] chunk;
+            try (InputStream in = openChunk(chunkID)) {
+                chunk = in.readAllBytes();
+            }
+            md.update(chunk);
+            if(newChunkID == null){
+                newChunkID = saveChunk(chunk,0,chunk.length,Config.TYPED_OBJECT_FORMAT);
+                newChunkIDs.put(chunkID,newChunkID);
+            }
+            migrated.chunkIDs.add(newChunkID);
+        }
+        migrated.blobID = Utils.sha1(md);
+        Repository.saveObject(migrated.blobID,ObjectCodec.encode(migrated));
+        return migrated.blobID;
+    }
+    // before Config.TYPED_OBJECT_FORMAT a file whose bytes were those of a stored chunk or tree got the id of that
+    // object,and was never stored itself.the bytes are still there:return them as a blob,or null if blobID is a blob
+    private static Blob collidedBlob(String blobID) throws IOException {
+        byte[] head;
+        try (InputStream in = Repository.openObject(blobID)) {
+            if(in == null)return null;
+            head = in.readNBytes(ObjectCodec.HEADER_SIZE);
+        }
+        if(head.length < ObjectCodec.HEADER_SIZE || head[0] != ObjectCodec.MAGIC)return null;
+        if(head[1] != ObjectCodec.TYPE_CHUNK && head[1] != ObjectCodec.TYPE_TREE)return null;
+        byte[] stored;
+        try (InputStream in = Repository.openObject(blobID)) {
+            stored = in.readAllBytes();
+        }
+        // a chunk object holds the bytes behind its header,a tree was hashed as a whole
+        if(head[1] == ObjectCodec.TYPE_CHUNK)stored = Arrays.copyOfRange(stored,ObjectCodec.HEADER_SIZE,stored.length);
+        return new Blob(blobID,null,stored);
+    }
+    // copy in to out (if there is one) chunk by chunk while hashing,and return the number of bytes copied
+    private static long copyContent(InputStream in,OutputStream out,MessageDigest md) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long copied = 0;
+        int n;
+        while((n = in.read(buffer)) > 0){
+            md.update(buffer,0,n);
+            if(out != null)out.write(buffer,0,n);
+            copied += n;
+        }
+        return copied;
     }
 
-    public String getFileContentInString(){
-        return fileContentInString;
+    public String getBlobID(){
+        return blobID;
+    }
+    public long getSize(){
+        return size;
+    }
+    // a stream over the content of this blob
+    public InputStream openContent() throws IOException {
+        if(fileContent != null)return new ByteArrayInputStream(fileContent);
+        if(chunkIDs != null)return openChunks();
+        InputStream object = Repository.openObject(blobID);
+        if(object == null)throw Utils.error("No object with id %s exists.",blobID);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(object,CHUNK_SIZE));
+        int version = ObjectCodec.readHeader(in,ObjectCodec.TYPE_BLOB);
+        if(version == 1)ObjectCodec.readId(in);
+        if(version < 4)ObjectCodec.readString(in);
+        ObjectCodec.readVarint(in);
+        if(version >= 3 && in.readByte() == CHUNKED){
+            readChunkList(in);
+            in.close();
+            return openChunks();
+        }
+        return in;
+    }
+    // the chunks of a chunked blob one after another,each chunk is only opened when the previous one is used up
+    private InputStream openChunks(){
+        Iterator<String> chunks = chunkIDs.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunks.hasNext();
+            }
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return openChunk(chunks.next());
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        });
+    }
+    // a stream over the content of the chunk chunkID
+    private static InputStream openChunk(String chunkID) throws IOException {
+        InputStream object = Repository.openObject(chunkID);
+        if(object == null)throw Utils.error("No object with id %s exists.",chunkID);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(object,CHUNK_SIZE));
+        ObjectCodec.readHeader(in,ObjectCodec.TYPE_CHUNK);
+        return in;
     }
     public byte[] getFileContent() {
-        return fileContent;
+        try (InputStream in = openContent()) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
-
-    public void saveBlobToFile() throws IOException {
-        File blobFile = Repository.createObjectFile(blobID);
-        Utils.writeObject(blobFile,this);
+    public String getFileContentInString(){
+        // the text is decoded on every call and not kept,so a blob held by the object cache stays as small as it was
+        return new String(getFileContent(),StandardCharsets.UTF_8);
     }
-    public void saveBlobToRemovalIndex() throws IOException{
+    // a rough number of bytes this blob takes in memory,for the object cache
+    long memoryFootprint(){
+        long footprint = 160 + (filePath == null ? 0 : 2L * filePath.length());
+        if(fileContent != null)footprint += fileContent.length;
+        if(chunkIDs != null)footprint += 120L * chunkIDs.size();
+        return footprint;
+    }
+    // write the content of this blob into file,overwriting it or creating it.every piece of the content that is
+    // stored uncompressed is copied from the object file by the kernel,the others are streamed through the heap
+    public void writeContentTo(File file){
+        if(file.isDirectory())throw new IllegalArgumentException("cannot overwrite directory");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            if(fileContent != null){
+                out.write(fileContent);
+            }else if(chunkIDs != null){
+                for(String chunkID : chunkIDs){
+                    if(transferStoredContent(chunkID,out.getChannel()))continue;
+                    try (InputStream in = openChunk(chunkID)) {
+                        in.transferTo(out);
+                    }
+                }
+            }else if(!transferStoredContent(blobID,out.getChannel())){
+                try (InputStream in = openContent()) {
+                    in.transferTo(out);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+    // copy the content of the inline blob or the chunk objectID into target with FileChannel.transferTo if it is
+    // stored uncompressed in one piece,and return true;return false,having written nothing,if it is not
+    private static boolean transferStoredContent(String objectID,FileChannel target) throws IOException {
+        try (StoredRegion region = Repository.getStoredRegion(objectID)) {
+            if(region == null)return false;
+            // the header of an older blob holds its path,which is rarely more than a few hundred bytes
+            byte[] head = region.readHead(STORED_HEAD_SIZE);
+            if(head.length < ObjectCodec.HEADER_SIZE || head[0] != ObjectCodec.MAGIC)return false;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(head));
+            long contentLength;
+            try {
+                in.skipNBytes(1);
+                byte type = in.readByte();
+                int version = in.readUnsignedByte();
+                if(type == ObjectCodec.TYPE_CHUNK){
+                    contentLength = region.length() - ObjectCodec.HEADER_SIZE;
+                }else if(type == ObjectCodec.TYPE_BLOB && version == 1){
+                    ObjectCodec.readId(in);
+                    ObjectCodec.readString(in);
+                    contentLength = ObjectCodec.readVarint(in);
+                }else if(type == ObjectCodec.TYPE_BLOB){
+                    if(version < 4)ObjectCodec.readString(in);
+                    contentLength = ObjectCodec.readVarint(in);
+                    if(version >= 3 && in.readByte() != INLINE)return false;
+                }else{
+                    return false;
+                }
+            } catch (EOFException excp) {
+                return false;
+            }
+            region.transferTo(head.length - in.available(),contentLength,target);
+            return true;
+        }
+    }
+    public void saveBlobToRemovalIndex(Index index) throws IOException{
         File file = Utils.join(Repository.CWD,filePath);
-        Index index = Utils.readObject(Repository.INDEX,Index.class);
         Commit currentCommit = Repository.getCurrentCommit();
         if(index.doesAdditionalIndexHasSameFileNameTo(filePath) && !currentCommit.isThereSameFileNameTo(filePath)){
             // do not remove file from working directory unless it is tacked by commit
             index.removeFromAdditionIndexAccordingToFilePath(filePath);
         }else if(currentCommit.isThereSameFileNameTo(filePath) && file.exists()){
             index.addFileToRemovalIndex(filePath,blobID);
-            Utils.restrictedDelete(file);
+            Repository.deleteWorkingFile(filePath);
+            index.forgetStat(filePath);
         }else if(currentCommit.isThereSameFileNameTo(filePath) && !file.exists()){
             index.addFileToRemovalIndex(filePath,blobID);
         }else{
             Utils.exitWithError("No reason to remove the file.");
         }
-        Utils.writeObject(Repository.INDEX,index);
     }
-    public void saveBlobToAdditionIndex() throws IOException {
-        Index index = Utils.readObject(Repository.INDEX,Index.class);
+    public void saveBlobToAdditionIndex(Index index,Commit currentCommit) throws IOException {
         // if the file to be added is identical to the current commit,
         // do not stage it, and remove it form the stageing area if it is already there(which means this file name is already in index)
         // this situation can happen when a file is changed,added,then changed back to it's
         // original version,and then to be added
-        Commit currentCommit = Repository.getCurrentCommit();
         if(currentCommit.isThereIdenticalFileTo(filePath,blobID)){
             // Here we are supposed to remove file from index according to filePath rather than blobId
             if(index.doesAdditionalIndexHasSameFileNameTo(filePath)){
@@ -67,18 +381,69 @@ public class Blob implements Serializable {
             if(index.doesRemovalIndexHasSameFileNameTo(filePath)){
                 index.removeFromRemovalIndexAccordingToFilePath(filePath);
             }
-            Utils.writeObject(Repository.INDEX,index);
             return;
         }
         // if the file is already staged,use the new blobId to overwrite
         // it's previous blobid in the index file
         index.addFileToAdditionIndex(filePath,blobID);
-        // overwrite or create
-        Utils.writeObject(Repository.INDEX,index);
     }
-    // Note!!!!blob use fileContent and file path together to generate it's id!
-    // if and only if two files' file content and path are all identical,these two files are same
-    private void generateID(){
-        blobID = Utils.sha1(fileContent,filePath);
+    // the digest that the id of a blob of size bytes is hashed with:the content follows a header of the type and the
+    // size of the object,as in git,so no blob shares its id with a chunk or a tree of the same bytes.repositories
+    // made before Config.TYPED_OBJECT_FORMAT hash the content alone until they are migrated
+    private static MessageDigest newBlobDigest(long size,int format){
+        MessageDigest md = Utils.newSha1();
+        if(format >= Config.TYPED_OBJECT_FORMAT)md.update(("blob " + size + "\0").getBytes(StandardCharsets.UTF_8));
+        return md;
+    }
+    // the id of a blob is the hash of its content alone,so the same content at any number of paths is stored and
+    // compared as one blob.a repository made before that(Config.CONTENT_ADDRESSED_FORMAT) hashes the path of the
+    // file along with it until it is migrated
+    private static String generateID(MessageDigest contentDigest,String filePath,int format){
+        if(filePath != null && format < Config.CONTENT_ADDRESSED_FORMAT){
+            contentDigest.update(filePath.getBytes(StandardCharsets.UTF_8));
+        }
+        return Utils.sha1(contentDigest);
+    }
+    // size | INLINE | content  or  size | CHUNKED | chunk count | (chunk id | chunk size)...
+    // the id is not stored as it is the name of the object(versions 2 and 3 have the path of the file in front)
+    void encode(DataOutputStream out) throws IOException {
+        ObjectCodec.writeVarint(out,size);
+        if(chunkIDs != null){
+            out.writeByte(CHUNKED);
+            ObjectCodec.writeVarint(out,chunkIDs.size());
+            for(int i = 0;i < chunkIDs.size();i++){
+                ObjectCodec.writeId(out,chunkIDs.get(i));
+                ObjectCodec.writeVarint(out,chunkSizes.get(i));
+            }
+            return;
+        }
+        out.writeByte(INLINE);
+        try (InputStream in = openContent()) {
+            in.transferTo(out);
+        }
+    }
+    private void readChunkList(DataInputStream in) throws IOException {
+        int count = (int) ObjectCodec.readVarint(in);
+        chunkIDs = new ArrayList<>(count);
+        chunkSizes = new ArrayList<>(count);
+        for(int i = 0;i < count;i++){
+            chunkIDs.add(ObjectCodec.readId(in));
+            chunkSizes.add((int) ObjectCodec.readVarint(in));
+        }
+    }
+    // read the header of a blob,leaving its content in the stream
+    static Blob decode(DataInputStream in,int version,String blobID) throws IOException {
+        if(version == 1){
+            // version 1 stored the id in front and kept the content in memory
+            ObjectCodec.readId(in);
+            String filePath = ObjectCodec.readString(in);
+            return new Blob(blobID,filePath,ObjectCodec.readBytes(in));
+        }
+        if(version < 2 || version > CODEC_VERSION)throw new IOException("unsupported blob version " + version);
+        String filePath = version < 4 ? ObjectCodec.readString(in) : null;
+        Blob blob = new Blob(blobID,filePath,ObjectCodec.readVarint(in));
+        // version 2 always had the content inline
+        if(version >= 3 && in.readByte() == CHUNKED)blob.readChunkList(in);
+        return blob;
     }
 }
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Cuts a stream into content-defined chunks, FastCDC style.
+ *
+ *  A gear hash (fp = (fp << 1) + GEAR[byte]) runs over the content and a
+ *  chunk ends where the top bits of fp are all zero. As fp only depends on
+ *  the last 64 bytes, cut points move along with the content: an edit only
+ *  changes the chunks around it, and every other chunk keeps its id and is
+ *  stored once. Below AVG_SIZE a stricter mask is used and above it a looser
+ *  one, which keeps chunk sizes close to AVG_SIZE, and MIN_SIZE and MAX_SIZE
+ *  bound them.
+ *
+ *  @author BoLee
+ */
+class Chunker {
+    static final int MIN_SIZE = 64 * 1024;
+    static final int AVG_SIZE = 256 * 1024;
+    static final int MAX_SIZE = 1024 * 1024;
+    // AVG_SIZE is 2^18: two bits more before the average and two bits less after it
+    private static final long MASK_SMALL = -1L << (64 - 20);
+    private static final long MASK_LARGE = -1L << (64 - 16);
+    private static final long[] GEAR = new long[256];
+    static {
+        // fixed pseudo-random values (splitmix64),chunk boundaries must never change between versions
+        long seed = 0x6769746c6574L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[2 * MAX_SIZE];
+    // the buffered content is buffer[start, end);the current chunk is buffer[start, start + length)
+    private int start;
+    private int end;
+    private int length;
+    private boolean eof;
+
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Moves to the next chunk, returning false at the end of the stream. */
+    boolean next() throws IOException {
+        start += length;
+        length = 0;
+        if (!eof && end - start < MAX_SIZE) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            while (end < buffer.length) {
+                int n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                end += n;
+            }
+        }
+        if (start == end) {
+            return false;
+        }
+        length = cutPoint(buffer, start, Math.min(end - start, MAX_SIZE));
+        return true;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+    int start() {
+        return start;
+    }
+    int length() {
+        return length;
+    }
+
+    /** Returns the length of the chunk at the front of the N bytes of
+     *  BYTES that start at OFFSET. */
+    static int cutPoint(byte[] bytes, int offset, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(n, AVG_SIZE);
+        long fp = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            fp = (fp << 1) + GEAR[bytes[offset + i] & 0xff];
+            if ((fp & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            fp = (fp << 1) + GEAR[bytes[offset + i] & 0xff];
+            if ((fp & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+}
@@ -2,6 +2,8 @@ package gitlet;
 
 
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
@@ -15,17 +17,36 @@ import java.util.*;
  *  @author BoLee
  */
 public class Commit implements Serializable {
+    // version 1 commits kept the map of all their files instead of a tree
+    static final int CODEC_VERSION = 2;
     /** The message of this Commit. */
     private String message;
     private List<String> parentCommitID;
     // the input of sha1 function must be string
     private String commitTime;
+    // the files of commits made before there were trees,null for the others
     private HashMap<String,String>filePathToBlobId;
+    // the id of the tree of the root directory,null for commits made before there were trees
+    private String treeID;
     // private HashMap<String,String>blobIdToFilePath;
     private String commitID;
     private boolean isMergeCommit = false;
+    // filePath to blob id of every file in this commit,as a new map the caller may change:commits are shared
+    // through the object cache,so the map of a commit made before there were trees is copied
     public HashMap<String, String> getFilePathToBlobId() {
-        return filePathToBlobId;
+        if(filePathToBlobId != null)return new HashMap<String,String>(filePathToBlobId);
+        if(treeID == null)return null;
+        HashMap<String,String> files = new HashMap<String,String>();
+        Tree.flatten(treeID,"",files);
+        return files;
+    }
+    public boolean hasTree(){
+        return treeID != null;
+    }
+    // the id of the root tree of this commit;the trees of a commit made before there were trees are stored first
+    public String getTreeID() throws IOException {
+        if(treeID != null)return treeID;
+        return Tree.write(filePathToBlobId);
     }
     public String getMessage() {
         return message;
@@ -38,6 +59,9 @@ public class Commit implements Serializable {
     public List<String> getParentCommitID() {
         return parentCommitID;
     }
+    public boolean isMergeCommit(){
+        return isMergeCommit;
+    }
     public boolean isInitialCommit(){
         return parentCommitID.size() == 0;
     }
@@ -45,6 +69,7 @@ public class Commit implements Serializable {
         return commitID;
     }
     public String getBlobIdOfFilePath(String filePath){
+        if(treeID != null)return Tree.lookup(treeID,filePath);
         return filePathToBlobId.get(filePath);
     }
     // when .git init,invoke this method to create a
@@ -53,7 +78,7 @@ public class Commit implements Serializable {
         message = "initial commit";
         // initial commit's parentCommitID's size is 0
         parentCommitID = new LinkedList<String>();
-        filePathToBlobId = new HashMap<String, String>(){};
+        treeID = Tree.write(new HashMap<String, String>());
         commitTime = formatDateToString(new Date(0));
         commitID = generateCommitID();
         isMergeCommit = false;
@@ -70,6 +95,31 @@ public class Commit implements Serializable {
     public Commit(String message) throws IOException {
         this(message, false,"");
     }
+    // rebuild a commit that has been read back from the object store
+    Commit(String commitID,String message,List<String> parentCommitID,String commitTime,
+           HashMap<String,String> filePathToBlobId,boolean isMergeCommit){
+        this.commitID = commitID;
+        this.message = message;
+        this.parentCommitID = parentCommitID;
+        this.commitTime = commitTime;
+        this.filePathToBlobId = filePathToBlobId;
+        this.isMergeCommit = isMergeCommit;
+    }
+    // this commit with new parents and a new tree,as migrate stores it again;its id is worked out anew
+    Commit migrated(List<String> newParentCommitID,String newTreeID){
+        Commit commit = new Commit(null,message,newParentCommitID,commitTime,null,isMergeCommit);
+        commit.treeID = newTreeID;
+        commit.commitID = commit.generateCommitID();
+        return commit;
+    }
+    // a rough number of bytes this commit takes in memory,for the object cache
+    long memoryFootprint(){
+        long footprint = 200 + 2L * message.length() + 100L * parentCommitID.size();
+        if(filePathToBlobId != null){
+            for(String filePath : filePathToBlobId.keySet())footprint += 200 + 2L * filePath.length();
+        }
+        return footprint;
+    }
     public void printCommit(){
         System.out.println("===");
         System.out.println("commit "+commitID);
@@ -88,33 +138,20 @@ public class Commit implements Serializable {
     }
     public boolean isThereIdenticalFileTo(String filePath, String blobID){
         // if two blobs are the same,filePath must be the same
-        return filePathToBlobId.containsKey(filePath) && filePathToBlobId.get(filePath).equals(blobID);
+        return blobID.equals(getBlobIdOfFilePath(filePath));
     }
     public boolean isThereSameFileNameTo(String filePath){
-        return filePathToBlobId.containsKey(filePath);
+        return getBlobIdOfFilePath(filePath) != null;
     }
     // the parent of  both mergeCommit and ordinary commit are current Commit
-    private void updateTheCommitReferenceToBlob(){
-        Index index = Utils.readObject(Repository.INDEX,Index.class);
+    private void updateTheCommitReferenceToBlob() throws IOException {
+        Index index = ObjectCodec.readObject(Repository.INDEX,Index.class);
         if(index.getAdditionalIndex().isEmpty() && index.getRemovalIndex().isEmpty())
             Utils.exitWithError("No changes added to the commit.");
-        // copy parent commit's blob
+        // start from the parent commit's tree:only the directories of the staged files get new trees,
+        // the others are shared with the parent
         Commit parentCommit = Repository.getObject(parentCommitID.get(0),Commit.class);
-        filePathToBlobId = parentCommit.getFilePathToBlobId();
-        // filePath to blobId
-        HashMap<String,String> additionIndex = index.getAdditionalIndex();
-        for(Map.Entry<String,String> entry : additionIndex.entrySet()){
-            String filePath = entry.getKey();
-            String blobId = entry.getValue();
-            // if name is the same,replace it ;or just add a new mapping
-            filePathToBlobId.put(filePath, blobId);
-        }
-        // filePath to blobId
-        HashMap<String,String> removalIndex = index.getRemovalIndex();
-        for(Map.Entry<String,String> entry : removalIndex.entrySet()){
-            String filePath = entry.getKey();
-            filePathToBlobId.remove(filePath);
-        }
+        treeID = Tree.update(parentCommit.getTreeID(),index.getAdditionalIndex(),index.getRemovalIndex().keySet());
     }
     private void setParentCommitId(boolean isMerge,String otherParentCommitID){
         // active branch
@@ -128,21 +165,58 @@ public class Commit implements Serializable {
         parentCommitID.add(secondParentCommitId);
     }
     public void saveCommit() throws IOException {
-        File commitObjectFile = Repository.createObjectFile(commitID);
-        Utils.writeObject(commitObjectFile,this);
-        // update branchFile to point to the newest commit
+        Repository.saveObject(commitID,ObjectCodec.encode(this));
+        // the commit log must not name a commit that a crash would lose
+        Journal.sync();
+        // update commit log in order to implement global-log and find,and the indexes built from it
+        CommitLog.append(this);
+        MessageIndex.update();
+        CommitGraph.update();
+        // update branchFile to point to the newest commit,once the commit and everything it refers to is on disk
+        // unless another process moved it since this commit took it as its parent
         File branchFile = Repository.getCurrentBranchFile();
-        Utils.writeContents(branchFile,commitID);
-        // update commit record in order to implement global-log and find
-        CommitRecord commitRecord = Utils.readObject(Repository.COMMITS_RECORD,CommitRecord.class);
-        commitRecord.add(this);
-        Utils.writeObject(Repository.COMMITS_RECORD,commitRecord);
+        Repository.compareAndSwapRef(branchFile,isInitialCommit() ? "" : parentCommitID.get(0),commitID);
     }
 
     // use commit's content to generate the commit id
     private String generateCommitID(){
         // the input of sha1 function must be String
-        return Utils.sha1(message,parentCommitID.toString(),filePathToBlobId.toString(),commitTime);
+        return Utils.sha1(message,parentCommitID.toString(),treeID,commitTime);
+    }
+    // the version this commit is encoded in:commits made before there were trees keep their map of files
+    int getCodecVersion(){
+        return treeID == null ? 1 : CODEC_VERSION;
+    }
+    // id | flags | parents | time | message | root tree id  (version 1: path -> blob id map instead of the tree)
+    void encode(DataOutputStream out) throws IOException {
+        ObjectCodec.writeId(out,commitID);
+        out.writeByte(isMergeCommit ? 1 : 0);
+        ObjectCodec.writeVarint(out,parentCommitID.size());
+        for(String parent : parentCommitID){
+            ObjectCodec.writeId(out,parent);
+        }
+        ObjectCodec.writeString(out,commitTime);
+        ObjectCodec.writeString(out,message);
+        if(treeID != null)ObjectCodec.writeId(out,treeID);
+        else ObjectCodec.writePathMap(out,filePathToBlobId);
+    }
+    static Commit decode(DataInputStream in,int version) throws IOException {
+        if(version != 1 && version != CODEC_VERSION)throw new IOException("unsupported commit version " + version);
+        String commitID = ObjectCodec.readId(in);
+        boolean isMergeCommit = in.readByte() != 0;
+        int parentCount = (int) ObjectCodec.readVarint(in);
+        List<String> parentCommitID = new LinkedList<String>();
+        for(int i = 0;i < parentCount;i++){
+            parentCommitID.add(ObjectCodec.readId(in));
+        }
+        String commitTime = ObjectCodec.readString(in);
+        String message = ObjectCodec.readString(in);
+        if(version == 1){
+            HashMap<String,String> filePathToBlobId = ObjectCodec.readPathMap(in);
+            return new Commit(commitID,message,parentCommitID,commitTime,filePathToBlobId,isMergeCommit);
+        }
+        Commit commit = new Commit(commitID,message,parentCommitID,commitTime,null,isMergeCommit);
+        commit.treeID = ObjectCodec.readId(in);
+        return commit;
     }
-
 }
@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/** The shape of the history: for every commit its parents, its generation
+ *  number and its time, so that walking the history never reads a commit
+ *  object (and its whole file map) just to learn its parents.
+ *
+ *  commit_graph:  "GGRF" | version | count | covered | fanout[256]
+ *                 | sorted 20-byte ids | count x (parent1 | parent2 | generation | time)
+ *
+ *  Commits are numbered by their position in the sorted id table, parents
+ *  are stored as such positions (-1 for none). The generation of a commit is
+ *  one more than the largest generation of its parents (1 for the initial
+ *  commit), so an ancestor always has a smaller generation than its
+ *  descendants, which lets walks stop early. The file is memory-mapped.
+ *
+ *  It is built from the CommitLog, which it covers up to the offset
+ *  "covered"; the commits logged after that are read from the log into an
+ *  overlay numbered after the ones in the file. The file is rewritten by
+ *  repack, and after a commit once the overlay has grown large.
+ *
+ *  @author BoLee
+ */
+class CommitGraph {
+    private static final int MAGIC = 0x47475246;
+    private static final int VERSION = 1;
+    private static final int FANOUT_SIZE = 256;
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+    // magic | version | count | covered
+    private static final int HEADER_SIZE = 20;
+    private static final int FANOUT_OFFSET = HEADER_SIZE;
+    private static final int IDS_OFFSET = FANOUT_OFFSET + 4 * FANOUT_SIZE;
+    // parent1 | parent2 | generation | time
+    private static final int DATA_SIZE = 20;
+    // the file is rewritten once this many bytes of the log are not covered by it
+    private static final long MAX_UNCOVERED = 256 * 1024;
+    // the paint of mergeBases: reached from the first side,from the second,a common ancestor that is found,
+    // and reached from a common ancestor
+    private static final byte PARENT1 = 1;
+    private static final byte PARENT2 = 2;
+    private static final byte RESULT = 4;
+    private static final byte STALE = 8;
+    // the format in which commits keep their time,built once as it is costly to set up
+    private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.US);
+
+    private final MappedByteBuffer graph;
+    private final int count;
+    private final long covered;
+    // the commits that the file does not cover yet,numbered from count on
+    private final List<String> overlayIds = new ArrayList<>();
+    private final HashMap<String, Integer> overlayPositions = new HashMap<>();
+    private final List<int[]> overlayParents = new ArrayList<>();
+    private final List<Integer> overlayGenerations = new ArrayList<>();
+    private final List<Long> overlayTimes = new ArrayList<>();
+
+    private CommitGraph(MappedByteBuffer graph) {
+        this.graph = graph;
+        if (graph == null) {
+            count = 0;
+            covered = 0;
+        } else {
+            if (graph.getInt(0) != MAGIC || graph.getInt(4) != VERSION) {
+                throw Utils.error("Corrupted commit graph.");
+            }
+            count = graph.getInt(8);
+            covered = graph.getLong(12);
+        }
+    }
+
+    /** Returns the graph of every commit in the log. */
+    static CommitGraph load() {
+        try {
+            MappedByteBuffer graph = null;
+            if (Repository.COMMIT_GRAPH.exists()) {
+                try (FileChannel channel = FileChannel.open(Repository.COMMIT_GRAPH.toPath())) {
+                    graph = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            CommitGraph commitGraph = new CommitGraph(graph);
+            CommitLog.forEachFrom(commitGraph.covered, (offset, commit) -> commitGraph.addToOverlay(commit));
+            return commitGraph;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Rewrites the file if the log has grown well past what it covers. */
+    static void update() throws IOException {
+        if (Repository.COMMIT_LOG.length() - covered() > MAX_UNCOVERED) {
+            write();
+        }
+    }
+
+    /** Returns the offset of the log up to which the file covers it, the
+     *  end of a record, or 0 if there is no file. */
+    static long covered() throws IOException {
+        if (!Repository.COMMIT_GRAPH.exists()) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(Repository.COMMIT_GRAPH.toPath())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).getLong(12);
+        }
+    }
+
+    /** Writes a file covering the whole log. */
+    static void write() throws IOException {
+        // log order puts every parent before its children
+        List<String> ids = new ArrayList<>();
+        List<List<String>> parentIDs = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        long covered = CommitLog.forEachFrom(0, (offset, commit) -> {
+            ids.add(commit.getCommitID());
+            parentIDs.add(distinctParents(commit));
+            times.add(parseTime(commit.getCommitTime()));
+        });
+        HashMap<String, Integer> logPositions = new HashMap<>();
+        int[] generations = new int[ids.size()];
+        for (int i = 0; i < ids.size(); i += 1) {
+            logPositions.put(ids.get(i), i);
+            int generation = 1;
+            for (String parent : parentIDs.get(i)) {
+                generation = Math.max(generation, generations[logPositions.get(parent)] + 1);
+            }
+            generations[i] = generation;
+        }
+        String[] sortedIds = ids.toArray(new String[0]);
+        Arrays.sort(sortedIds);
+        HashMap<String, Integer> positions = new HashMap<>();
+        int[] fanout = new int[FANOUT_SIZE];
+        for (int i = 0; i < sortedIds.length; i += 1) {
+            positions.put(sortedIds[i], i);
+            fanout[Integer.parseInt(sortedIds[i].substring(0, 2), 16)] += 1;
+        }
+        File tmpFile = AtomicFile.newTempFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sortedIds.length);
+            out.writeLong(covered);
+            int total = 0;
+            for (int b = 0; b < FANOUT_SIZE; b += 1) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            for (String id : sortedIds) {
+                out.write(Utils.idToBytes(id));
+            }
+            for (String id : sortedIds) {
+                int logPosition = logPositions.get(id);
+                List<String> parents = parentIDs.get(logPosition);
+                out.writeInt(parents.size() > 0 ? positions.get(parents.get(0)) : -1);
+                out.writeInt(parents.size() > 1 ? positions.get(parents.get(1)) : -1);
+                out.writeInt(generations[logPosition]);
+                out.writeLong(times.get(logPosition));
+            }
+        }
+        AtomicFile.install(tmpFile, Repository.COMMIT_GRAPH);
+    }
+
+    // the parents of a commit without the repeated first parent that non-merge commits carry
+    private static List<String> distinctParents(Commit commit) {
+        List<String> parents = new ArrayList<>();
+        for (String parent : commit.getParentCommitID()) {
+            if (!parents.contains(parent)) {
+                parents.add(parent);
+            }
+        }
+        return parents;
+    }
+
+    private static synchronized long parseTime(String commitTime) {
+        try {
+            return TIME_FORMAT.parse(commitTime).getTime() / 1000;
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    private void addToOverlay(Commit commit) {
+        List<String> parents = distinctParents(commit);
+        int[] parentPositions = new int[parents.size()];
+        int generation = 1;
+        for (int i = 0; i < parents.size(); i += 1) {
+            parentPositions[i] = find(parents.get(i));
+            generation = Math.max(generation, getGeneration(parentPositions[i]) + 1);
+        }
+        overlayPositions.put(commit.getCommitID(), count + overlayIds.size());
+        overlayIds.add(commit.getCommitID());
+        overlayParents.add(parentPositions);
+        overlayGenerations.add(generation);
+        overlayTimes.add(parseTime(commit.getCommitTime()));
+    }
+
+    /** Returns the number of commits. */
+    int size() {
+        return count + overlayIds.size();
+    }
+
+    /** Returns the position of the commit COMMITID, or -1 if there is no
+     *  such commit. */
+    int find(String commitID) {
+        Integer overlayPosition = overlayPositions.get(commitID);
+        if (overlayPosition != null) {
+            return overlayPosition;
+        }
+        if (graph == null || commitID.length() != Utils.UID_LENGTH || !commitID.matches("[0-9a-f]+")) {
+            return -1;
+        }
+        byte[] id = Utils.idToBytes(commitID);
+        int firstByte = id[0] & 0xff;
+        int lo = firstByte == 0 ? 0 : graph.getInt(FANOUT_OFFSET + 4 * (firstByte - 1));
+        int hi = graph.getInt(FANOUT_OFFSET + 4 * firstByte) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareIdAt(mid, id);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the positions of the commits whose id starts with PREFIX,
+     *  a string of lowercase hex digits, in the order of their ids and then
+     *  those not in the file yet. */
+    List<Integer> findPrefix(String prefix) {
+        List<Integer> positions = new ArrayList<>();
+        if (graph != null && !prefix.isEmpty()) {
+            int lo = 0;
+            int hi = count;
+            if (prefix.length() >= 2) {
+                int firstByte = Integer.parseInt(prefix.substring(0, 2), 16);
+                lo = firstByte == 0 ? 0 : graph.getInt(FANOUT_OFFSET + 4 * (firstByte - 1));
+                hi = graph.getInt(FANOUT_OFFSET + 4 * firstByte);
+            }
+            // the first id that is not smaller than prefix
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (comparePrefixAt(mid, prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            for (int i = lo; i < count && comparePrefixAt(i, prefix) == 0; i += 1) {
+                positions.add(i);
+            }
+        }
+        for (int i = 0; i < overlayIds.size(); i += 1) {
+            if (overlayIds.get(i).startsWith(prefix)) {
+                positions.add(count + i);
+            }
+        }
+        return positions;
+    }
+
+    // compare the first hex digits of the id at POSITION with PREFIX
+    private int comparePrefixAt(int position, String prefix) {
+        int base = IDS_OFFSET + ID_SIZE * position;
+        for (int k = 0; k < prefix.length(); k += 1) {
+            int b = graph.get(base + k / 2) & 0xff;
+            int digit = k % 2 == 0 ? b >>> 4 : b & 0xf;
+            int diff = digit - Character.digit(prefix.charAt(k), 16);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private int compareIdAt(int position, byte[] id) {
+        int base = IDS_OFFSET + ID_SIZE * position;
+        for (int k = 0; k < ID_SIZE; k += 1) {
+            int diff = (graph.get(base + k) & 0xff) - (id[k] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    String getId(int position) {
+        if (position >= count) {
+            return overlayIds.get(position - count);
+        }
+        byte[] id = new byte[ID_SIZE];
+        graph.get(IDS_OFFSET + ID_SIZE * position, id);
+        return Utils.bytesToId(id, 0);
+    }
+
+    private int dataOffset(int position) {
+        return IDS_OFFSET + ID_SIZE * count + DATA_SIZE * position;
+    }
+
+    /** Returns the positions of the parents of the commit at POSITION, the
+     *  first parent first. */
+    int[] getParents(int position) {
+        if (position >= count) {
+            return overlayParents.get(position - count);
+        }
+        int parent1 = graph.getInt(dataOffset(position));
+        int parent2 = graph.getInt(dataOffset(position) + 4);
+        if (parent1 < 0) {
+            return new int[0];
+        }
+        return parent2 < 0 ? new int[]{parent1} : new int[]{parent1, parent2};
+    }
+
+    int getGeneration(int position) {
+        if (position >= count) {
+            return overlayGenerations.get(position - count);
+        }
+        return graph.getInt(dataOffset(position) + 8);
+    }
+
+    /** Returns the time of the commit at POSITION in seconds since the epoch. */
+    long getTime(int position) {
+        if (position >= count) {
+            return overlayTimes.get(position - count);
+        }
+        return graph.getLong(dataOffset(position) + 12);
+    }
+
+    /** Returns true if the commit at ANCESTOR is the commit at DESCENDANT or
+     *  one of its ancestors. Only commits with a larger generation than
+     *  ANCESTOR are walked. */
+    boolean isAncestor(int ancestor, int descendant) {
+        int ancestorGeneration = getGeneration(ancestor);
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> getGeneration(b) - getGeneration(a));
+        BitSet visited = new BitSet(size());
+        queue.add(descendant);
+        visited.set(descendant);
+        while (!queue.isEmpty()) {
+            int position = queue.poll();
+            if (position == ancestor) {
+                return true;
+            }
+            if (getGeneration(position) <= ancestorGeneration) {
+                continue;
+            }
+            for (int parent : getParents(position)) {
+                if (!visited.get(parent)) {
+                    visited.set(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Returns the best common ancestors of the commits at ONES taken
+     *  together and the commit at TWO: the common ancestors that are not an
+     *  ancestor of another common ancestor. There is usually one, but
+     *  criss-cross merges leave several. They come newest first.
+     *
+     *  Both sides are walked at once, newest generation first, painting
+     *  every commit with the sides it is reached from. A commit painted by
+     *  both is a common ancestor and its ancestors are painted stale, as
+     *  none of them can be a best one; the walk ends once only stale
+     *  commits are left. */
+    List<Integer> mergeBases(Collection<Integer> ones, int two) {
+        byte[] flags = new byte[size()];
+        // every entry is a position and whether it was stale when it was queued
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> compareNewestFirst(a[0], b[0]));
+        int nonStale = 0;
+        for (int one : ones) {
+            if ((flags[one] & PARENT1) == 0) {
+                flags[one] |= PARENT1;
+                queue.add(new int[]{one, 0});
+                nonStale += 1;
+            }
+        }
+        flags[two] |= PARENT2;
+        queue.add(new int[]{two, 0});
+        nonStale += 1;
+        List<Integer> commonAncestors = new ArrayList<>();
+        // a commit can be queued again with more flags,so flags only ever grow
+        while (nonStale > 0) {
+            int[] entry = queue.poll();
+            if (entry[1] == 0) {
+                nonStale -= 1;
+            }
+            int position = entry[0];
+            int paint = flags[position] & (PARENT1 | PARENT2 | STALE);
+            if (paint == (PARENT1 | PARENT2)) {
+                if ((flags[position] & RESULT) == 0) {
+                    flags[position] |= RESULT;
+                    commonAncestors.add(position);
+                }
+                paint |= STALE;
+            }
+            for (int parent : getParents(position)) {
+                if ((flags[parent] & paint) == paint) {
+                    continue;
+                }
+                flags[parent] |= paint;
+                boolean stale = (flags[parent] & STALE) != 0;
+                queue.add(new int[]{parent, stale ? 1 : 0});
+                if (!stale) {
+                    nonStale += 1;
+                }
+            }
+        }
+        // a common ancestor found before one of its descendants was reached is not a best one
+        List<Integer> bases = new ArrayList<>();
+        for (int candidate : commonAncestors) {
+            boolean redundant = false;
+            for (int other : commonAncestors) {
+                if (other != candidate && isAncestor(candidate, other)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(candidate);
+            }
+        }
+        return bases;
+    }
+
+    // larger generation first,then the later commit,then the larger position so the order is total
+    private int compareNewestFirst(int a, int b) {
+        int cmp = Integer.compare(getGeneration(b), getGeneration(a));
+        if (cmp == 0) {
+            cmp = Long.compare(getTime(b), getTime(a));
+        }
+        return cmp != 0 ? cmp : Integer.compare(b, a);
+    }
+}
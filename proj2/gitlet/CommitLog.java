@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** The list of every commit ever made, used by global-log and find.
+ *
+ *  The file is  "GLOG" | version | records...  where every record is
+ *      varint length | id | flags | parent count | parent ids | time | message
+ *  so it only holds what global-log and find print, not the files of the
+ *  commits. A commit adds its record with a single append, and readers
+ *  stream the records in the order the commits were made. A record cut
+ *  short by a crash at the end of the file is ignored.
+ *
+ *  Repositories that still have the old commits_record file, which was
+ *  rewritten as a whole on every commit, are converted the first time the
+ *  log is used.
+ *
+ *  @author BoLee
+ */
+class CommitLog {
+    private static final byte[] MAGIC = {'G', 'L', 'O', 'G'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+    private static final byte MERGE_FLAG = 1;
+
+    /** Creates an empty log. */
+    static void create() throws IOException {
+        try (OutputStream out = new FileOutputStream(Repository.COMMIT_LOG)) {
+            out.write(header());
+        }
+    }
+
+    /** Replaces the log by one holding COMMITS, in that order. The new log
+     *  is written beside the old one, forced to disk and then moved over
+     *  it. */
+    static void replace(List<Commit> commits) throws IOException {
+        File tmpFile = AtomicFile.newTempFile();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+            out.write(header());
+            for (Commit commit : commits) {
+                out.write(encodeRecord(commit));
+            }
+        }
+        AtomicFile.install(tmpFile, Repository.COMMIT_LOG);
+    }
+
+    /** Adds COMMIT at the end of the log, and forces it to disk before the
+     *  branch is moved to the commit. A record that a crash cut short is
+     *  cut off first, as readers would stop at it and never see the new
+     *  one; only the records the commit graph does not cover are read to
+     *  find it. */
+    static void append(Commit commit) throws IOException {
+        migrateCommitsRecord();
+        long end = forEachFrom(CommitGraph.covered(), (offset, logged) -> { });
+        byte[] record = encodeRecord(commit);
+        try (FileOutputStream out = new FileOutputStream(Repository.COMMIT_LOG, true)) {
+            if (out.getChannel().size() > end) {
+                out.getChannel().truncate(end);
+            }
+            out.write(record);
+            out.getFD().sync();
+        }
+    }
+
+    /** Called with every commit read from the log and the offset of its
+     *  record. */
+    interface RecordVisitor {
+        void visit(long offset, Commit commit);
+    }
+
+    /** Calls ACTION on every commit in the order they were made. The
+     *  commits carry no files, getObject reads a whole commit. */
+    static void forEach(Consumer<Commit> action) {
+        forEachFrom(0, (offset, commit) -> action.accept(commit));
+    }
+
+    /** Calls VISITOR on every commit whose record starts at OFFSET or
+     *  later, OFFSET being 0 or the end of a record, and returns the offset
+     *  just past the last complete record. */
+    static long forEachFrom(long offset, RecordVisitor visitor) {
+        try {
+            migrateCommitsRecord();
+            try (FileInputStream file = new FileInputStream(Repository.COMMIT_LOG)) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(file));
+                byte[] header = new byte[HEADER_SIZE];
+                in.readFully(header);
+                if (!Arrays.equals(header, header())) {
+                    throw Utils.error("Corrupted commit log.");
+                }
+                long position = Math.max(offset, HEADER_SIZE);
+                in.skipNBytes(position - HEADER_SIZE);
+                while (true) {
+                    byte[] record;
+                    try {
+                        record = ObjectCodec.readBytes(in);
+                    } catch (EOFException excp) {
+                        return position;
+                    }
+                    visitor.visit(position, decodeRecord(record));
+                    position += ObjectCodec.varintSize(record.length) + record.length;
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the commits whose records start at OFFSETS, in that order. */
+    static List<Commit> readAt(Collection<Long> offsets) {
+        List<Commit> commits = new ArrayList<>();
+        try (RandomAccessFile file = new RandomAccessFile(Repository.COMMIT_LOG, "r")) {
+            for (long offset : offsets) {
+                file.seek(offset);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+                commits.add(decodeRecord(ObjectCodec.readBytes(in)));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return commits;
+    }
+
+    private static byte[] header() {
+        byte[] header = Arrays.copyOf(MAGIC, HEADER_SIZE);
+        header[MAGIC.length] = VERSION;
+        return header;
+    }
+
+    /** Returns the record of COMMIT, length prefix included. */
+    private static byte[] encodeRecord(Commit commit) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        ObjectCodec.writeId(out, commit.getCommitID());
+        out.writeByte(commit.isMergeCommit() ? MERGE_FLAG : 0);
+        ObjectCodec.writeVarint(out, commit.getParentCommitID().size());
+        for (String parent : commit.getParentCommitID()) {
+            ObjectCodec.writeId(out, parent);
+        }
+        ObjectCodec.writeString(out, commit.getCommitTime());
+        ObjectCodec.writeString(out, commit.getMessage());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        ObjectCodec.writeBytes(new DataOutputStream(record), body.toByteArray());
+        return record.toByteArray();
+    }
+
+    private static Commit decodeRecord(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String commitID = ObjectCodec.readId(in);
+        boolean isMergeCommit = (in.readByte() & MERGE_FLAG) != 0;
+        int parentCount = (int) ObjectCodec.readVarint(in);
+        List<String> parentCommitID = new LinkedList<>();
+        for (int i = 0; i < parentCount; i += 1) {
+            parentCommitID.add(ObjectCodec.readId(in));
+        }
+        String commitTime = ObjectCodec.readString(in);
+        String message = ObjectCodec.readString(in);
+        return new Commit(commitID, message, parentCommitID, commitTime, null, isMergeCommit);
+    }
+
+    /** Replaces the commits_record file of an older repository by a log
+     *  holding the same commits. */
+    private static void migrateCommitsRecord() throws IOException {
+        if (Repository.COMMIT_LOG.exists() || !Repository.COMMITS_RECORD.exists()) {
+            return;
+        }
+        CommitRecord commitRecord = ObjectCodec.readObject(Repository.COMMITS_RECORD, CommitRecord.class);
+        File tmpFile = AtomicFile.newTempFile();
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            out.write(header());
+            for (Commit commit : commitRecord.getCommitList()) {
+                out.write(encodeRecord(commit));
+            }
+        }
+        AtomicFile.install(tmpFile, Repository.COMMIT_LOG);
+        Repository.COMMITS_RECORD.delete();
+    }
+}
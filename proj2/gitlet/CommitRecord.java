@@ -1,29 +1,39 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 
-/** maintain a commit record in order to implement global-log and find
+/** the list of every commit that older versions rewrote on every commit,
+ *  it is only read now to convert it into the CommitLog
  */
 public class CommitRecord implements Serializable {
+    static final int CODEC_VERSION = 1;
     private List<Commit>commitList = new LinkedList<Commit>();
     public void add(Commit commit){
         commitList.add(commit);
     }
-    public void printCommitRecord(){
+    // every commit,in the order they were made
+    public List<Commit> getCommitList(){
+        return commitList;
+    }
+    // number of commits | commits,each encoded without its header
+    void encode(DataOutputStream out) throws IOException {
+        ObjectCodec.writeVarint(out,commitList.size());
         for(Commit commit : commitList){
-            commit.printCommit();
+            commit.encode(out);
         }
     }
-    public void findSameMessageCommitID(String message){
-        boolean isFinded = false;
-        for(Commit commit : commitList){
-            if(commit.getMessage().equals(message)){
-                isFinded = true;
-                System.out.println(commit.getCommitID());
-            }
+    static CommitRecord decode(DataInputStream in,int version) throws IOException {
+        if(version != CODEC_VERSION)throw new IOException("unsupported commit record version " + version);
+        CommitRecord commitRecord = new CommitRecord();
+        long size = ObjectCodec.readVarint(in);
+        for(long i = 0;i < size;i++){
+            commitRecord.add(Commit.decode(in,Commit.CODEC_VERSION));
         }
-        if(!isFinded) System.out.println("Found no commit with that message.");
+        return commitRecord;
     }
 }
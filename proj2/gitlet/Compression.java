@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** zlib compression of stored objects.
+ *
+ *  An object is stored either as a zlib stream or as its plain encoding, and
+ *  readers tell the two apart by the first byte: zlib streams start with
+ *  0x78, gitlet's encoding with 'G' and the legacy one with 0xAC. This lets
+ *  content that does not compress (images, archives, ...) skip the work.
+ *
+ *  @author BoLee
+ */
+class Compression {
+    private static final int ZLIB_MAGIC = 0x78;
+    // compressed content has to be at most this fraction of its size to be worth the CPU on every read
+    private static final double MAX_RATIO = 0.9;
+
+    /** The zlib level from the repository settings; 0 turns compression off. */
+    static int level() {
+        return Config.getInt(Config.COMPRESSION);
+    }
+
+    /** Returns the first LENGTH bytes of CONTENT as a zlib stream at LEVEL. */
+    static byte[] deflate(byte[] content, int length, int level) {
+        Deflater deflater = new Deflater(level);
+        deflater.setInput(content, 0, length);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            result.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return result.toByteArray();
+    }
+
+    /** Returns the stored form of the encoded object CONTENT. */
+    static byte[] compress(byte[] content) {
+        int level = level();
+        if (level == 0) {
+            return content;
+        }
+        byte[] compressed = deflate(content, content.length, level);
+        return compressed.length <= content.length * MAX_RATIO ? compressed : content;
+    }
+
+    /** Returns true if content that starts with the first LENGTH bytes of
+     *  SAMPLE is worth compressing at LEVEL. */
+    static boolean isWorthCompressing(byte[] sample, int length, int level) {
+        if (level == 0 || length == 0) {
+            return false;
+        }
+        return deflate(sample, length, level).length <= length * MAX_RATIO;
+    }
+
+    /** Returns a stream that writes everything written to it to OUT as one
+     *  zlib stream at LEVEL. */
+    static OutputStream compressingStream(OutputStream out, int level) {
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, Blob.CHUNK_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /** Returns a stream over the encoded object stored in STORED, inflating
+     *  it if it was stored compressed. */
+    static InputStream decompressingStream(InputStream stored) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(stored, Blob.CHUNK_SIZE);
+        in.mark(1);
+        int firstByte = in.read();
+        in.reset();
+        if (firstByte == ZLIB_MAGIC) {
+            return new InflaterInputStream(in, new Inflater(), Blob.CHUNK_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inf.end();
+                    }
+                }
+            };
+        }
+        return in;
+    }
+}
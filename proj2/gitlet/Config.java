@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/** Repository-level settings, kept as key=value lines in .gitlet/config and
+ *  changed with  gitlet config KEY VALUE.
+ *
+ *  @author BoLee
+ */
+public class Config {
+    /** zlib level for stored objects: -1 for zlib's default, 0 to store
+     *  objects uncompressed, up to 9 for the smallest objects. */
+    public static final String COMPRESSION = "core.compression";
+    /** Bytes of decoded commits, trees and blobs kept in memory while a command
+     *  runs, 0 to keep none. */
+    public static final String OBJECT_CACHE = "core.objectCache";
+    /** Threads that write files during a checkout, 0 for one per core and
+     *  1 to write them one after another. */
+    public static final String CHECKOUT_WORKERS = "checkout.workers";
+    /** The least similarity, in percent, for a removed and an added file to
+     *  be taken as a rename by merge and status, 0 to detect no renames. */
+    public static final String RENAME_THRESHOLD = "diff.renameThreshold";
+    /** The format of the repository. It is set by init and migrate and can
+     *  be read but not changed with config, as every id in the repository
+     *  depends on it. */
+    public static final String REPOSITORY_FORMAT = "core.repositoryFormat";
+    /** The first format whose blob ids hash the content of a file alone;
+     *  the ids of a repository without a format also hash its path. */
+    public static final int CONTENT_ADDRESSED_FORMAT = 2;
+    /** The first format whose blob and chunk ids hash a header of the type
+     *  and size of the object in front of the content, so no blob or chunk
+     *  can have the id of a tree, or of each other, with the same bytes. */
+    public static final int TYPED_OBJECT_FORMAT = 3;
+
+    // every setting gitlet knows,with its default value
+    private static final Map<String,String> DEFAULTS = new LinkedHashMap<>();
+    static {
+        DEFAULTS.put(COMPRESSION,"-1");
+        DEFAULTS.put(OBJECT_CACHE,String.valueOf(32 * 1024 * 1024));
+        DEFAULTS.put(CHECKOUT_WORKERS,"0");
+        DEFAULTS.put(RENAME_THRESHOLD,"50");
+    }
+    private static Properties properties;
+
+    private static synchronized Properties getProperties(){
+        if(properties == null){
+            properties = new Properties();
+            if(Repository.CONFIG.exists()){
+                try (InputStream in = new FileInputStream(Repository.CONFIG)) {
+                    properties.load(in);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        }
+        return properties;
+    }
+    public static String get(String key){
+        return getProperties().getProperty(key,DEFAULTS.get(key));
+    }
+    public static int getInt(String key){
+        try {
+            return Integer.parseInt(get(key).trim());
+        } catch (NumberFormatException excp) {
+            return Integer.parseInt(DEFAULTS.get(key));
+        }
+    }
+    public static int getRepositoryFormat(){
+        try {
+            return Integer.parseInt(getProperties().getProperty(REPOSITORY_FORMAT,"1").trim());
+        } catch (NumberFormatException excp) {
+            throw Utils.error("Corrupted repository format.");
+        }
+    }
+    public static void setRepositoryFormat(int format) throws IOException {
+        getProperties().setProperty(REPOSITORY_FORMAT,String.valueOf(format));
+        store();
+    }
+    // git config key: print the value of key
+    public static void printValue(String key){
+        if(key.equals(REPOSITORY_FORMAT)){
+            System.out.println(getRepositoryFormat());
+            return;
+        }
+        if(!DEFAULTS.containsKey(key))Utils.exitWithError("No such setting.");
+        System.out.println(get(key));
+    }
+    // git config key value
+    public static void set(String key,String value) throws IOException {
+        if(!Repository.GITLET_DIR.exists())Utils.exitWithError("Not in an initialized Gitlet directory.");
+        if(key.equals(REPOSITORY_FORMAT))Utils.exitWithError("The repository format is changed by migrate.");
+        if(!DEFAULTS.containsKey(key))Utils.exitWithError("No such setting.");
+        if(!isValid(key,value))Utils.exitWithError("Invalid value for " + key + ".");
+        getProperties().setProperty(key,value);
+        store();
+    }
+    // the settings are replaced as a whole,a crash never leaves half of them
+    private static void store() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        getProperties().store(out,null);
+        AtomicFile.write(Repository.CONFIG,out.toByteArray());
+    }
+    private static boolean isValid(String key,String value){
+        try {
+            int number = Integer.parseInt(value);
+            switch(key){
+                case COMPRESSION:
+                    return number >= -1 && number <= 9;
+                case OBJECT_CACHE:
+                case CHECKOUT_WORKERS:
+                    return number >= 0;
+                case RENAME_THRESHOLD:
+                    return number >= 0 && number <= 100;
+                default:
+                    return true;
+            }
+        } catch (NumberFormatException excp) {
+            return false;
+        }
+    }
+}
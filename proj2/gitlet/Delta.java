@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Binary deltas between two versions of an object.
+ *
+ *  A delta is  varint base length | varint target length | instructions...
+ *  where every instruction is either
+ *      COPY    | varint offset | varint length   (bytes taken from the base)
+ *      INSERT  | varint length | bytes           (bytes only in the target)
+ *
+ *  To find what the target shares with the base, the base is cut into
+ *  BLOCK-byte blocks that are indexed by hash, and a rolling hash over a
+ *  BLOCK-byte window slides along the target. Every hit is checked byte by
+ *  byte and then extended in both directions, so an edit only costs the
+ *  bytes that really changed plus a few instructions.
+ *
+ *  @author BoLee
+ */
+class Delta {
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+    // the shortest run of bytes that is worth a copy instruction
+    private static final int BLOCK = 16;
+    private static final int PRIME = 31;
+
+    /** Returns a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(stream);
+            ObjectCodec.writeVarint(out, base.length);
+            ObjectCodec.writeVarint(out, target.length);
+            int[] index = indexBlocks(base);
+            int mask = index.length - 1;
+            int highPower = 1;
+            for (int k = 1; k < BLOCK; k += 1) {
+                highPower *= PRIME;
+            }
+            // bytes of the target between the end of the last copy and i
+            int insertStart = 0;
+            int i = 0;
+            int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (i + BLOCK <= target.length) {
+                int candidate = index[spread(hash) & mask] - 1;
+                if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK, target, i, i + BLOCK)) {
+                    int start = candidate;
+                    int targetStart = i;
+                    // grow the match backwards into the pending insert ...
+                    while (start > 0 && targetStart > insertStart && base[start - 1] == target[targetStart - 1]) {
+                        start -= 1;
+                        targetStart -= 1;
+                    }
+                    // ... and forwards as far as the two agree
+                    int end = candidate + BLOCK;
+                    int targetEnd = i + BLOCK;
+                    while (end < base.length && targetEnd < target.length && base[end] == target[targetEnd]) {
+                        end += 1;
+                        targetEnd += 1;
+                    }
+                    writeInsert(out, target, insertStart, targetStart);
+                    out.writeByte(COPY);
+                    ObjectCodec.writeVarint(out, start);
+                    ObjectCodec.writeVarint(out, end - start);
+                    i = targetEnd;
+                    insertStart = i;
+                    if (i + BLOCK <= target.length) {
+                        hash = hash(target, i);
+                    }
+                    continue;
+                }
+                if (i + BLOCK < target.length) {
+                    hash = (hash - target[i] * highPower) * PRIME + target[i + BLOCK];
+                }
+                i += 1;
+            }
+            writeInsert(out, target, insertStart, target.length);
+            out.close();
+            return stream.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error creating delta.");
+        }
+    }
+
+    /** Returns the target that DELTA builds out of BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+            if (ObjectCodec.readVarint(in) != base.length) {
+                throw Utils.error("Delta does not match its base.");
+            }
+            byte[] target = new byte[(int) ObjectCodec.readVarint(in)];
+            int position = 0;
+            while (in.available() > 0) {
+                byte op = in.readByte();
+                if (op == COPY) {
+                    int offset = (int) ObjectCodec.readVarint(in);
+                    int length = (int) ObjectCodec.readVarint(in);
+                    System.arraycopy(base, offset, target, position, length);
+                    position += length;
+                } else if (op == INSERT) {
+                    int length = (int) ObjectCodec.readVarint(in);
+                    in.readFully(target, position, length);
+                    position += length;
+                } else {
+                    throw Utils.error("Corrupted delta.");
+                }
+            }
+            if (position != target.length) {
+                throw Utils.error("Corrupted delta.");
+            }
+            return target;
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw Utils.error("Corrupted delta.");
+        }
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] target, int start, int end) throws IOException {
+        if (start >= end) {
+            return;
+        }
+        out.writeByte(INSERT);
+        ObjectCodec.writeVarint(out, end - start);
+        out.write(target, start, end - start);
+    }
+
+    /** Returns a hash table from the hash of each BLOCK-aligned block of BASE
+     *  to its offset plus one (0 marks an empty slot). */
+    private static int[] indexBlocks(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int size = Integer.highestOneBit(Math.max(blocks, 1) * 2) * 2;
+        int[] index = new int[size];
+        for (int offset = (blocks - 1) * BLOCK; offset >= 0; offset -= BLOCK) {
+            // walking backwards leaves the earliest block in a slot
+            index[spread(hash(base, offset)) & (size - 1)] = offset + 1;
+        }
+        return index;
+    }
+
+    private static int hash(byte[] bytes, int offset) {
+        int hash = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            hash = hash * PRIME + bytes[offset + k];
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash * 0x9e3779b9 >>> 7 ^ hash;
+    }
+}
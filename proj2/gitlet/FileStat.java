@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** The stat data of a file in the working directory, together with the id
+ *  of the blob the file held when the stat data was taken.
+ *
+ *  As long as a file keeps its modification time, change time, size and
+ *  inode it is taken to keep its content, so it does not have to be read
+ *  and hashed again. A file written in the same clock tick as the index
+ *  that records it could still change without its stat data changing,
+ *  so such "racy" entries are dropped when the index is written (see
+ *  Repository.writeIndex), as git does.
+ *
+ *  @author BoLee
+ */
+class FileStat {
+    // the unix view also has the inode and the change time,elsewhere they are left 0
+    private static final boolean UNIX_VIEW = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final long mtime;
+    private final long ctime;
+    private final long size;
+    private final long inode;
+    private final String blobID;
+
+    private FileStat(long mtime, long ctime, long size, long inode, String blobID) {
+        this.mtime = mtime;
+        this.ctime = ctime;
+        this.size = size;
+        this.inode = inode;
+        this.blobID = blobID;
+    }
+
+    /** Returns the stat data of FILE, or null if it is not a regular file. */
+    static FileStat read(File file) {
+        Path path = file.toPath();
+        try {
+            if (UNIX_VIEW) {
+                Map<String, Object> attributes = Files.readAttributes(path, "unix:isRegularFile,lastModifiedTime,ctime,size,ino");
+                if (!(Boolean) attributes.get("isRegularFile")) {
+                    return null;
+                }
+                return new FileStat(nanos(attributes.get("lastModifiedTime")), nanos(attributes.get("ctime")),
+                        (Long) attributes.get("size"), (Long) attributes.get("ino"), null);
+            }
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                return null;
+            }
+            return new FileStat(nanos(attributes.lastModifiedTime()), 0, attributes.size(), 0, null);
+        } catch (NoSuchFileException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static long nanos(Object time) {
+        return ((FileTime) time).to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Returns this stat data recorded as belonging to the blob BLOBID. */
+    FileStat withBlob(String blobID) {
+        return new FileStat(mtime, ctime, size, inode, blobID);
+    }
+
+    /** Returns true if OTHER describes the file as it was when this stat
+     *  data was taken. */
+    boolean sameAs(FileStat other) {
+        return other != null && mtime == other.mtime && ctime == other.ctime
+                && size == other.size && inode == other.inode;
+    }
+
+    long getMtime() {
+        return mtime;
+    }
+    long getSize() {
+        return size;
+    }
+    String getBlobID() {
+        return blobID;
+    }
+
+    // blob id | mtime | ctime | size | inode
+    void encode(DataOutputStream out) throws IOException {
+        ObjectCodec.writeId(out, blobID);
+        out.writeLong(mtime);
+        out.writeLong(ctime);
+        ObjectCodec.writeVarint(out, size);
+        out.writeLong(inode);
+    }
+
+    static FileStat decode(DataInputStream in) throws IOException {
+        String blobID = ObjectCodec.readId(in);
+        long mtime = in.readLong();
+        long ctime = in.readLong();
+        long size = ObjectCodec.readVarint(in);
+        return new FileStat(mtime, ctime, size, in.readLong(), blobID);
+    }
+}
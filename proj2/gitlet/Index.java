@@ -1,14 +1,27 @@
 package gitlet;
 
 import javax.print.DocFlavor;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Index implements Serializable {
+    static final int CODEC_VERSION = 2;
     // filePath to blobId
     private HashMap<String,String>additionalIndex = new HashMap<String, String>();
     private HashMap<String,String>removalIndex = new HashMap<String, String>();
+    // filePath to the stat data of the file in the working directory when gitlet last hashed or wrote it,
+    // it is kept across commits so that unchanged files never have to be hashed again
+    private HashMap<String,FileStat>statCache = new HashMap<String, FileStat>();
+    public Index(){
+    }
+    Index(HashMap<String,String> additionalIndex,HashMap<String,String> removalIndex){
+        this.additionalIndex = additionalIndex;
+        this.removalIndex = removalIndex;
+    }
     // blobid to filePath
     // private HashMap<String,String>reverseAdditonalIndex = new HashMap<String, String>();
     // private HashMap<String,String>reverseRemovalIndex = new HashMap<String, String>();
@@ -61,10 +74,61 @@ public class Index implements Serializable {
     public boolean doesRemovalIndexHasSameFileNameTo(String filePath){
         return removalIndex.containsKey(filePath);
     }
+    // the id of the blob that the file at filePath holds,if its stat data shows that it has not changed
+    // since it was recorded;otherwise return null and the file has to be hashed
+    public String getCachedBlobID(String filePath,FileStat currentStat){
+        FileStat recorded = statCache.get(filePath);
+        if(recorded == null || !recorded.sameAs(currentStat))return null;
+        return recorded.getBlobID();
+    }
+    public void recordStat(String filePath,FileStat stat){
+        if(stat == null)statCache.remove(filePath);
+        else statCache.put(filePath,stat);
+    }
+    public void forgetStat(String filePath){
+        statCache.remove(filePath);
+    }
+    // forget the files modified at or after indexTime(nanoseconds),they may still change within the same clock tick
+    // without their stat data changing;return whether any was forgotten
+    public boolean smudgeRacyStats(long indexTime){
+        return statCache.values().removeIf(stat -> stat.getMtime() >= indexTime);
+    }
+    // replace the blob ids of the staged files and the stat cache by the ids newBlobIDs maps them to,when migrate
+    // changes every blob id;a stat entry whose blob has no new id is dropped,so that file is hashed again
+    public void migrateBlobIDs(Map<String,String> newBlobIDs){
+        additionalIndex.replaceAll((filePath,blobID) -> newBlobIDs.get(blobID));
+        removalIndex.replaceAll((filePath,blobID) -> newBlobIDs.get(blobID));
+        statCache.entrySet().removeIf(entry -> !newBlobIDs.containsKey(entry.getValue().getBlobID()));
+        statCache.replaceAll((filePath,stat) -> stat.withBlob(newBlobIDs.get(stat.getBlobID())));
+    }
+    // the staging area is cleared,the stat cache is kept
     public void clear(){
         additionalIndex = new HashMap<String, String>(){};
         // reverseAdditonalIndex = new HashMap<String, String>(){};
         removalIndex = new HashMap<String, String>(){};
         // reverseRemovalIndex = new HashMap<String, String>(){};
     }
+    // staged additions | staged removals | stat entry count | (path | stat entry)...
+    void encode(DataOutputStream out) throws IOException {
+        ObjectCodec.writePathMap(out,additionalIndex);
+        ObjectCodec.writePathMap(out,removalIndex);
+        ObjectCodec.writeVarint(out,statCache.size());
+        for(Map.Entry<String,FileStat> entry : statCache.entrySet()){
+            ObjectCodec.writeString(out,entry.getKey());
+            entry.getValue().encode(out);
+        }
+    }
+    static Index decode(DataInputStream in,int version) throws IOException {
+        if(version != 1 && version != CODEC_VERSION)throw new IOException("unsupported index version " + version);
+        HashMap<String,String> additionalIndex = ObjectCodec.readPathMap(in);
+        Index index = new Index(additionalIndex,ObjectCodec.readPathMap(in));
+        // version 1 had no stat cache
+        if(version == 1)return index;
+        int size = (int) ObjectCodec.readVarint(in);
+        for(int i = 0;i < size;i++){
+            String filePath = ObjectCodec.readString(in);
+            index.statCache.put(filePath,FileStat.decode(in));
+        }
+        return index;
+    }
 }
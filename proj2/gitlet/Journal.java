@@ -0,0 +1,259 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** Makes the objects a command writes durable before any ref or the index
+ *  points at them, forcing them in one batch instead of one at a time.
+ *
+ *  An object is written into a temporary file in the objects directory,
+ *  which add hands over to the journal. Until the next sync only this
+ *  process sees it, through pendingFile. sync forces all of those files and
+ *  the objects directory that holds their names, appends a record for each
+ *  to the journal and forces it, and only then renames them into place, so
+ *  no file that a crash could cut short ever shows up under an object id.
+ *  The renames themselves are not forced; the journal keeps the records
+ *  until a checkpoint forces the directories they went into.
+ *
+ *  The file is  "GJNL" | version | records...  where every record is
+ *      id | varint stored length | name of the temporary file
+ *  and a sync appends its records with a single write, so a crash can only
+ *  cut short the last ones, which are ignored. After a crash, recover checks
+ *  every journaled object: one whose loose file is missing or of the wrong
+ *  length is moved into place again from its temporary file if that is
+ *  still there, and otherwise a wrong loose file is dropped, to be written
+ *  again by the next command that stores the object.
+ *
+ *  Once the journal holds more than CHECKPOINT_RECORDS objects, the
+ *  directories they went into are forced and it is deleted, which keeps the
+ *  check that every command starts with short.
+ *
+ *  @author BoLee
+ */
+class Journal {
+    private static final byte[] MAGIC = {'G', 'J', 'N', 'L'};
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+    private static final int CHECKPOINT_RECORDS = 1024;
+
+    // the objects written since the last sync,by id
+    private static final Map<String, File> pending = new LinkedHashMap<>();
+    // open from the first sync that writes records until the next checkpoint
+    private static FileOutputStream out;
+    private static long size;
+    private static int records;
+
+    /** Hands over TMPFILE, a completely written temporary file in the
+     *  objects directory, as the object OBJECTID. Objects are written by
+     *  several threads at once, and one that was written twice is kept
+     *  once. */
+    static synchronized void add(String objectID, File tmpFile) {
+        if (pending.containsKey(objectID)) {
+            tmpFile.delete();
+            return;
+        }
+        pending.put(objectID, tmpFile);
+    }
+
+    /** The temporary file of the object OBJECTID if it was written since
+     *  the last sync, or null. */
+    static synchronized File pendingFile(String objectID) {
+        return pending.get(objectID);
+    }
+
+    /** Makes every object written so far durable and moves it into place.
+     *  Called before a ref or the index is replaced, so that neither can
+     *  point at an object that a crash would lose. */
+    static synchronized void sync() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(buffer);
+        for (Map.Entry<String, File> entry : pending.entrySet()) {
+            AtomicFile.force(entry.getValue());
+            ObjectCodec.writeId(record, entry.getKey());
+            ObjectCodec.writeVarint(record, entry.getValue().length());
+            record.writeUTF(entry.getValue().getName());
+        }
+        AtomicFile.syncDirectory(Repository.OBJECTS_DIR);
+        if (out == null) {
+            open();
+        }
+        buffer.writeTo(out);
+        out.getFD().sync();
+        size += buffer.size();
+        records += pending.size();
+        for (Map.Entry<String, File> entry : pending.entrySet()) {
+            File objectFile = Repository.getLooseObjectFile(entry.getKey());
+            objectFile.getParentFile().mkdir();
+            AtomicFile.move(entry.getValue(), objectFile);
+        }
+        pending.clear();
+        if (records > CHECKPOINT_RECORDS) {
+            checkpoint();
+        }
+    }
+
+    /** Forces the directories of every object the journal covers to disk
+     *  and deletes it. */
+    static synchronized void checkpoint() throws IOException {
+        if (!Repository.JOURNAL.exists()) {
+            return;
+        }
+        Set<File> dirs = new TreeSet<>();
+        for (String objectID : readRecords().keySet()) {
+            dirs.add(Repository.getLooseObjectFile(objectID).getParentFile());
+        }
+        for (File dir : dirs) {
+            AtomicFile.syncDirectory(dir);
+        }
+        close();
+        Repository.JOURNAL.delete();
+        AtomicFile.syncDirectory(Repository.GITLET_DIR);
+    }
+
+    /** Moves every journaled object whose loose file a crash left missing
+     *  or cut short into place again, or drops what is left of it, and
+     *  counts the records of the journal. Called before a command reads or
+     *  writes anything. */
+    static synchronized void recover() throws IOException {
+        if (!Repository.JOURNAL.exists()) {
+            return;
+        }
+        if (lostObjects().isEmpty() && Repository.JOURNAL.length() <= size) {
+            return;
+        }
+        // a command that only reads repairs the repository holding the lock alone, and then looks again, as another
+        // command may have repaired it in the meantime
+        RepositoryLock.upgrade();
+        if (!Repository.JOURNAL.exists()) {
+            return;
+        }
+        Map<String, Record> lost = lostObjects();
+        Set<File> dirs = new TreeSet<>();
+        for (Map.Entry<String, Record> entry : lost.entrySet()) {
+            File objectFile = Repository.getLooseObjectFile(entry.getKey());
+            File tmpFile = Utils.join(Repository.OBJECTS_DIR, entry.getValue().tmpName);
+            if (tmpFile.length() == entry.getValue().length) {
+                objectFile.getParentFile().mkdir();
+                AtomicFile.move(tmpFile, objectFile);
+            } else {
+                Files.deleteIfExists(objectFile.toPath());
+            }
+            dirs.add(objectFile.getParentFile());
+        }
+        for (File dir : dirs) {
+            AtomicFile.syncDirectory(dir);
+        }
+        // a record cut short would hide every record appended after it
+        if (Repository.JOURNAL.length() > size) {
+            try (FileChannel channel = FileChannel.open(Repository.JOURNAL.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(size);
+            }
+        }
+    }
+
+    // the journaled objects whose loose file is missing or of the wrong length,unless they were packed
+    private static Map<String, Record> lostObjects() throws IOException {
+        Map<String, Record> lost = new LinkedHashMap<>();
+        for (Map.Entry<String, Record> entry : readRecords().entrySet()) {
+            File objectFile = Repository.getLooseObjectFile(entry.getKey());
+            if (objectFile.exists() ? objectFile.length() != entry.getValue().length
+                    : !Repository.hasObject(entry.getKey())) {
+                lost.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return lost;
+    }
+
+    private static void open() throws IOException {
+        boolean created = !Repository.JOURNAL.exists() || Repository.JOURNAL.length() < HEADER_SIZE;
+        if (created) {
+            try (FileOutputStream header = new FileOutputStream(Repository.JOURNAL)) {
+                header.write(header());
+                header.getFD().sync();
+            }
+            // the journal itself has to survive a crash
+            AtomicFile.syncDirectory(Repository.GITLET_DIR);
+            size = HEADER_SIZE;
+            records = 0;
+        }
+        out = new FileOutputStream(Repository.JOURNAL, true);
+    }
+
+    private static void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        size = 0;
+        records = 0;
+    }
+
+    // every complete record by object id;size and records are set to the length and the number of the complete
+    // records.the journal is small,as a record is a few dozen bytes and it is deleted every CHECKPOINT_RECORDS
+    private static Map<String, Record> readRecords() throws IOException {
+        Map<String, Record> result = new LinkedHashMap<>();
+        byte[] content = Files.readAllBytes(Repository.JOURNAL.toPath());
+        if (content.length < HEADER_SIZE) {
+            // a journal whose header was cut short holds nothing
+            size = 0;
+            records = 0;
+            return result;
+        }
+        if (!Arrays.equals(Arrays.copyOf(content, HEADER_SIZE), header())) {
+            throw Utils.error("Corrupted journal.");
+        }
+        ByteArrayInputStream buffer = new ByteArrayInputStream(content, HEADER_SIZE, content.length - HEADER_SIZE);
+        DataInputStream in = new DataInputStream(buffer);
+        long position = HEADER_SIZE;
+        int count = 0;
+        while (true) {
+            try {
+                String objectID = ObjectCodec.readId(in);
+                long length = ObjectCodec.readVarint(in);
+                result.put(objectID, new Record(length, in.readUTF()));
+            } catch (EOFException excp) {
+                break;
+            }
+            position = content.length - buffer.available();
+            count += 1;
+        }
+        size = position;
+        records = count;
+        return result;
+    }
+
+    private static byte[] header() {
+        byte[] header = Arrays.copyOf(MAGIC, HEADER_SIZE);
+        header[MAGIC.length] = VERSION;
+        return header;
+    }
+
+    /** What the journal knows of one object: its stored length and the
+     *  temporary file it was written into. */
+    private static class Record {
+        final long length;
+        final String tmpName;
+
+        Record(long length, String tmpName) {
+            this.length = length;
+            this.tmpName = tmpName;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/** Reads objects that older versions of gitlet wrote with Java serialization.
+ *
+ *  The stream names the classes as they were back then (gitlet.Commit,
+ *  gitlet.Blob, and the anonymous gitlet.Commit$1, gitlet.Index$1, ...), so
+ *  every class descriptor is swapped for the one of a frozen mirror class
+ *  below that has exactly the old fields. The mirrors are then converted to
+ *  the current classes, which can change freely without breaking old
+ *  repositories.
+ *
+ *  @author BoLee
+ */
+class LegacyFormat {
+
+    static <T extends Serializable> T decode(byte[] content, Class<T> expectedClass) {
+        try (ObjectInputStream in = new MirrorInputStream(content)) {
+            return expectedClass.cast(convert(in.readObject()));
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static Object convert(Object legacy) {
+        if (legacy instanceof LegacyCommit) {
+            return ((LegacyCommit) legacy).toCommit();
+        } else if (legacy instanceof LegacyBlob) {
+            LegacyBlob blob = (LegacyBlob) legacy;
+            return new Blob(blob.blobID, blob.filePath, blob.fileContent);
+        } else if (legacy instanceof LegacyIndex) {
+            LegacyIndex index = (LegacyIndex) legacy;
+            return new Index(new HashMap<>(index.additionalIndex), new HashMap<>(index.removalIndex));
+        } else if (legacy instanceof LegacyCommitRecord) {
+            CommitRecord commitRecord = new CommitRecord();
+            for (LegacyCommit commit : ((LegacyCommitRecord) legacy).commitList) {
+                commitRecord.add(commit.toCommit());
+            }
+            return commitRecord;
+        }
+        throw new IllegalArgumentException("not a legacy gitlet object");
+    }
+
+    /** Maps the class names found in old streams to their mirrors. */
+    private static final Map<String, Class<?>> MIRRORS = new HashMap<>();
+    static {
+        MIRRORS.put("gitlet.Commit", LegacyCommit.class);
+        MIRRORS.put("gitlet.Blob", LegacyBlob.class);
+        MIRRORS.put("gitlet.Index", LegacyIndex.class);
+        MIRRORS.put("gitlet.CommitRecord", LegacyCommitRecord.class);
+        // the old code built some of its collections as anonymous subclasses
+        MIRRORS.put("gitlet.Commit$1", LegacyCommitHashMap.class);
+        MIRRORS.put("gitlet.Commit$2", LegacyCommitLinkedList.class);
+        MIRRORS.put("gitlet.Index$1", LegacyIndexHashMap.class);
+        MIRRORS.put("gitlet.Index$2", LegacyIndexHashMap.class);
+    }
+
+    private static class MirrorInputStream extends ObjectInputStream {
+        MirrorInputStream(byte[] content) throws IOException {
+            super(new ByteArrayInputStream(content));
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass streamDescriptor = super.readClassDescriptor();
+            Class<?> mirror = MIRRORS.get(streamDescriptor.getName());
+            if (mirror == null) {
+                return streamDescriptor;
+            }
+            return ObjectStreamClass.lookup(mirror);
+        }
+    }
+
+    /* MIRRORS: the field names and types must never change. Their
+     * serialVersionUID is never compared with the one in the stream, as the
+     * stream's class descriptors are replaced by theirs. */
+
+    private static class LegacyCommit implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String message;
+        private List<String> parentCommitID;
+        private String commitTime;
+        private HashMap<String, String> filePathToBlobId;
+        private String commitID;
+        private boolean isMergeCommit;
+
+        Commit toCommit() {
+            return new Commit(commitID, message, new LinkedList<>(parentCommitID), commitTime,
+                    new HashMap<>(filePathToBlobId), isMergeCommit);
+        }
+    }
+
+    private static class LegacyBlob implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String blobID;
+        private byte[] fileContent;
+        private String fileContentInString;
+        private String filePath;
+    }
+
+    private static class LegacyIndex implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private HashMap<String, String> additionalIndex;
+        private HashMap<String, String> removalIndex;
+    }
+
+    private static class LegacyCommitRecord implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private List<LegacyCommit> commitList;
+    }
+
+    /* Anonymous classes also serialized the hidden reference to the object
+     * that created them. */
+
+    private static class LegacyCommitHashMap extends HashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+        private LegacyCommit this$0;
+    }
+
+    private static class LegacyCommitLinkedList extends LinkedList<String> {
+        private static final long serialVersionUID = 1L;
+        private LegacyCommit this$0;
+    }
+
+    private static class LegacyIndexHashMap extends HashMap<String, String> {
+        private static final long serialVersionUID = 1L;
+        private LegacyIndex this$0;
+    }
+}
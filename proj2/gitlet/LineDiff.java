@@ -0,0 +1,597 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The line-by-line differences between two versions of a file, and their
+ *  unified and --stat output.
+ *
+ *  Every distinct line is interned to an int once, so the algorithms only
+ *  ever compare ints. Before an algorithm runs, the lines that occur on one
+ *  side only are set aside as changed, as no edit script can keep them,
+ *  and the common prefix and suffix of every range are skipped. A large
+ *  file with a few changes is then diffed in close to linear time, and two
+ *  unrelated files do not make Myers walk all of their N * M grid.
+ *
+ *  MYERS is the linear-space divide and conquer form of Myers' O(ND)
+ *  algorithm: it finds the middle snake of an optimal edit script from
+ *  both ends at once and recurses on either side of it. Like git, it stops
+ *  looking after about the square root of the lines and splits where it
+ *  got furthest, so files that differ all over take far less than O(ND)
+ *  time for a script that is a little longer. PATIENCE anchors
+ *  the diff on the longest increasing run of the lines that are unique on
+ *  both sides and HISTOGRAM on the longest common run around the rarest
+ *  line, recursing between the anchors; both fall back to Myers in a range
+ *  without an anchor, and both line code up by its distinctive lines
+ *  rather than by blank lines and braces.
+ *
+ *  @author BoLee
+ */
+class LineDiff {
+    enum Algorithm { MYERS, PATIENCE, HISTOGRAM }
+
+    /** Lines of unchanged context around every hunk. */
+    static final int CONTEXT = 3;
+    /** Myers gives up looking for the middle snake after this many steps,
+     *  or the square root of the lines, whichever is more. */
+    private static final int MIN_COST_LIMIT = 256;
+    /** HISTOGRAM only anchors on lines that occur at most this often. */
+    private static final int MAX_CHAIN = 64;
+    /** Bytes at the start of a file that are looked at to tell binary files. */
+    private static final int BINARY_CHECK_SIZE = 8000;
+    /** The widest +/- bar of --stat. */
+    private static final int STAT_WIDTH = 50;
+
+    /** A run of changed lines: lines [oldStart, oldEnd) of the old version
+     *  are replaced by lines [newStart, newEnd) of the new one. */
+    static final class Edit {
+        final int oldStart;
+        final int oldEnd;
+        final int newStart;
+        final int newEnd;
+
+        Edit(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+    }
+
+    // the interned lines of the range being diffed,after the ones that occur on one side only are dropped,
+    // and the index of each in the whole version
+    private int[] a;
+    private int[] b;
+    private int[] aLine;
+    private int[] bLine;
+    private final boolean[] oldChanged;
+    private final boolean[] newChanged;
+
+    private LineDiff(int oldSize, int newSize) {
+        oldChanged = new boolean[oldSize];
+        newChanged = new boolean[newSize];
+    }
+
+    /** Returns CONTENT split into lines, each with its newline; only the
+     *  last one may be without it. */
+    static List<String> splitLines(byte[] content) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    /** Returns whether CONTENT looks like a binary file: it has a NUL byte
+     *  near the start, as git decides. */
+    static boolean isBinary(byte[] content) {
+        int end = Math.min(content.length, BINARY_CHECK_SIZE);
+        for (int i = 0; i < end; i += 1) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the edits that turn OLDLINES into NEWLINES, in order. */
+    static List<Edit> diff(List<String> oldLines, List<String> newLines, Algorithm algorithm) {
+        LineDiff diff = new LineDiff(oldLines.size(), newLines.size());
+        Map<String, Integer> interned = new HashMap<>();
+        int[] oldIds = intern(oldLines, interned);
+        int[] newIds = intern(newLines, interned);
+        int[] oldCounts = new int[interned.size()];
+        int[] newCounts = new int[interned.size()];
+        for (int id : oldIds) {
+            oldCounts[id] += 1;
+        }
+        for (int id : newIds) {
+            newCounts[id] += 1;
+        }
+        diff.a = diff.keepCommon(oldIds, newCounts, diff.oldChanged, true);
+        diff.b = diff.keepCommon(newIds, oldCounts, diff.newChanged, false);
+        int aSize = diff.a.length;
+        int bSize = diff.b.length;
+        switch (algorithm) {
+            case PATIENCE:
+                diff.patience(0, aSize, 0, bSize);
+                break;
+            case HISTOGRAM:
+                diff.histogram(0, aSize, 0, bSize);
+                break;
+            default:
+                diff.myers(0, aSize, 0, bSize);
+                break;
+        }
+        return diff.edits();
+    }
+
+    private static int[] intern(List<String> lines, Map<String, Integer> interned) {
+        int[] ids = new int[lines.size()];
+        for (int i = 0; i < ids.length; i += 1) {
+            Integer id = interned.get(lines.get(i));
+            if (id == null) {
+                id = interned.size();
+                interned.put(lines.get(i), id);
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    // mark the lines of IDS that never occur on the other side as changed,and return the others
+    private int[] keepCommon(int[] ids, int[] otherCounts, boolean[] changed, boolean old) {
+        int[] kept = new int[ids.length];
+        int[] lineOf = new int[ids.length];
+        int size = 0;
+        for (int i = 0; i < ids.length; i += 1) {
+            if (otherCounts[ids[i]] == 0) {
+                changed[i] = true;
+            } else {
+                kept[size] = ids[i];
+                lineOf[size] = i;
+                size += 1;
+            }
+        }
+        if (old) {
+            aLine = Arrays.copyOf(lineOf, size);
+        } else {
+            bLine = Arrays.copyOf(lineOf, size);
+        }
+        return Arrays.copyOf(kept, size);
+    }
+
+    private void markOld(int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            oldChanged[aLine[i]] = true;
+        }
+    }
+
+    private void markNew(int from, int to) {
+        for (int i = from; i < to; i += 1) {
+            newChanged[bLine[i]] = true;
+        }
+    }
+
+    /** Diffs a[ALO, AHI) against b[BLO, BHI) by Myers' algorithm in linear
+     *  space. */
+    private void myers(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            markOld(aLo, aHi);
+            markNew(bLo, bHi);
+            return;
+        }
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD + 1;
+        // the furthest x reached on every diagonal k = x - y,from the start and from the end
+        int[] forward = new int[2 * maxD + 3];
+        int[] backward = new int[2 * maxD + 3];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // with an odd delta the paths from both ends meet on a forward step,with an even one on a backward step
+        boolean odd = (delta & 1) != 0;
+        // diagonals that ran off the grid are not extended any more
+        int forwardStart = 0;
+        int forwardEnd = 0;
+        int backwardStart = 0;
+        int backwardEnd = 0;
+        int costLimit = Math.max(MIN_COST_LIMIT, (int) Math.sqrt(n + m));
+        for (int d = 0; d <= maxD; d += 1) {
+            for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && forward[i - 1] < forward[i + 1]) ? forward[i + 1] : forward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[i] = x;
+                if (x > n) {
+                    forwardEnd += 2;
+                } else if (y > m) {
+                    forwardStart += 2;
+                } else if (odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < backward.length && backward[j] != -1 && x >= n - backward[j]) {
+                        myers(aLo, aLo + x, bLo, bLo + y);
+                        myers(aLo + x, aHi, bLo + y, bHi);
+                        return;
+                    }
+                }
+            }
+            for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+                int i = offset + k;
+                int x = k == -d || (k != d && backward[i - 1] < backward[i + 1]) ? backward[i + 1] : backward[i - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[i] = x;
+                if (x > n) {
+                    backwardEnd += 2;
+                } else if (y > m) {
+                    backwardStart += 2;
+                } else if (!odd) {
+                    int j = offset + delta - k;
+                    if (j >= 0 && j < forward.length && forward[j] != -1 && forward[j] >= n - x) {
+                        int splitX = forward[j];
+                        int splitY = splitX - (j - offset);
+                        myers(aLo, aLo + splitX, bLo, bLo + splitY);
+                        myers(aLo + splitX, aHi, bLo + splitY, bHi);
+                        return;
+                    }
+                }
+            }
+            if (d >= costLimit) {
+                // the ranges differ too much to find the middle snake cheaply,so they are split where the forward
+                // search got furthest,as git does;the script is still right,only maybe not the shortest
+                int splitX = -1;
+                int splitY = -1;
+                for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+                    int x = forward[offset + k];
+                    int y = x - k;
+                    if (x <= n && y >= 0 && y <= m && x + y > splitX + splitY) {
+                        splitX = x;
+                        splitY = y;
+                    }
+                }
+                if (splitX + splitY > 0 && splitX + splitY < n + m) {
+                    myers(aLo, aLo + splitX, bLo, bLo + splitY);
+                    myers(aLo + splitX, aHi, bLo + splitY, bHi);
+                    return;
+                }
+            }
+        }
+        // replacing the whole range is a valid script,if nothing better was found
+        markOld(aLo, aHi);
+        markNew(bLo, bHi);
+    }
+
+    /** Diffs a[ALO, AHI) against b[BLO, BHI) by anchoring on the longest
+     *  increasing run of the lines that are unique on both sides. */
+    private void patience(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            markOld(aLo, aHi);
+            markNew(bLo, bHi);
+            return;
+        }
+        // line to {count in a,position in a,count in b,position in b}
+        Map<Integer, int[]> occurrences = new HashMap<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] occurrence = occurrences.computeIfAbsent(a[i], line -> new int[4]);
+            occurrence[0] += 1;
+            occurrence[1] = i;
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            int[] occurrence = occurrences.get(b[j]);
+            if (occurrence != null) {
+                occurrence[2] += 1;
+                occurrence[3] = j;
+            }
+        }
+        // the unique lines in the order of a,by their position in b
+        List<int[]> unique = new ArrayList<>();
+        for (int i = aLo; i < aHi; i += 1) {
+            int[] occurrence = occurrences.get(a[i]);
+            if (occurrence[0] == 1 && occurrence[2] == 1) {
+                unique.add(new int[]{i, occurrence[3]});
+            }
+        }
+        if (unique.isEmpty()) {
+            myers(aLo, aHi, bLo, bHi);
+            return;
+        }
+        // patience sorting:tails[l] is the unique line ending the best increasing run of length l + 1 so far
+        int[] tails = new int[unique.size()];
+        int[] previous = new int[unique.size()];
+        int runs = 0;
+        for (int u = 0; u < unique.size(); u += 1) {
+            int position = unique.get(u)[1];
+            int low = 0;
+            int high = runs;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (unique.get(tails[middle])[1] < position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            tails[low] = u;
+            previous[u] = low > 0 ? tails[low - 1] : -1;
+            if (low == runs) {
+                runs += 1;
+            }
+        }
+        int[] anchors = new int[runs];
+        for (int u = tails[runs - 1], l = runs - 1; u != -1; u = previous[u], l -= 1) {
+            anchors[l] = u;
+        }
+        int nextA = aLo;
+        int nextB = bLo;
+        for (int u : anchors) {
+            int[] anchor = unique.get(u);
+            patience(nextA, anchor[0], nextB, anchor[1]);
+            nextA = anchor[0] + 1;
+            nextB = anchor[1] + 1;
+        }
+        patience(nextA, aHi, nextB, bHi);
+    }
+
+    /** Diffs a[ALO, AHI) against b[BLO, BHI) by anchoring on the longest
+     *  common run around the line that is rarest in a. */
+    private void histogram(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            markOld(aLo, aHi);
+            markNew(bLo, bHi);
+            return;
+        }
+        // every line of a to its first position and count,and every position to the next one of the same line
+        Map<Integer, int[]> heads = new HashMap<>();
+        int[] next = new int[aHi - aLo];
+        for (int i = aHi - 1; i >= aLo; i -= 1) {
+            int[] head = heads.computeIfAbsent(a[i], line -> new int[]{-1, 0});
+            next[i - aLo] = head[0];
+            head[0] = i;
+            head[1] += 1;
+        }
+        int bestA = -1;
+        int bestB = -1;
+        int bestLength = 0;
+        int bestCount = MAX_CHAIN;
+        int j = bLo;
+        while (j < bHi) {
+            int[] head = heads.get(b[j]);
+            int nextJ = j + 1;
+            if (head != null && head[1] <= bestCount) {
+                for (int i = head[0]; i != -1; i = next[i - aLo]) {
+                    int startA = i;
+                    int startB = j;
+                    while (startA > aLo && startB > bLo && a[startA - 1] == b[startB - 1]) {
+                        startA -= 1;
+                        startB -= 1;
+                    }
+                    int endA = i + 1;
+                    int endB = j + 1;
+                    while (endA < aHi && endB < bHi && a[endA] == b[endB]) {
+                        endA += 1;
+                        endB += 1;
+                    }
+                    if (head[1] < bestCount || endA - startA > bestLength) {
+                        bestA = startA;
+                        bestB = startB;
+                        bestLength = endA - startA;
+                        bestCount = head[1];
+                    }
+                    // the lines of b inside this run have been looked at already
+                    nextJ = Math.max(nextJ, endB);
+                }
+            }
+            j = nextJ;
+        }
+        if (bestLength == 0) {
+            myers(aLo, aHi, bLo, bHi);
+            return;
+        }
+        histogram(aLo, bestA, bLo, bestB);
+        histogram(bestA + bestLength, aHi, bestB + bestLength, bHi);
+    }
+
+    // the changed lines of both versions as runs,in order
+    private List<Edit> edits() {
+        List<Edit> edits = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < oldChanged.length || j < newChanged.length) {
+            if (i < oldChanged.length && j < newChanged.length && !oldChanged[i] && !newChanged[j]) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int oldStart = i;
+            int newStart = j;
+            while (i < oldChanged.length && oldChanged[i]) {
+                i += 1;
+            }
+            while (j < newChanged.length && newChanged[j]) {
+                j += 1;
+            }
+            edits.add(new Edit(oldStart, i, newStart, j));
+        }
+        return edits;
+    }
+
+    /** Appends the hunks of EDITS between OLDLINES and NEWLINES to OUT in
+     *  unified format, with CONTEXT lines of context; edits whose contexts
+     *  touch share a hunk. */
+    static void writeUnified(StringBuilder out, List<String> oldLines, List<String> newLines, List<Edit> edits) {
+        int first = 0;
+        while (first < edits.size()) {
+            int last = first;
+            while (last + 1 < edits.size() && edits.get(last + 1).oldStart - edits.get(last).oldEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Edit firstEdit = edits.get(first);
+            Edit lastEdit = edits.get(last);
+            int before = Math.min(CONTEXT, firstEdit.oldStart);
+            int after = Math.min(CONTEXT, oldLines.size() - lastEdit.oldEnd);
+            int oldStart = firstEdit.oldStart - before;
+            int newStart = firstEdit.newStart - before;
+            int oldCount = lastEdit.oldEnd + after - oldStart;
+            int newCount = lastEdit.newEnd + after - newStart;
+            out.append("@@ -").append(range(oldStart, oldCount)).append(" +")
+                    .append(range(newStart, newCount)).append(" @@\n");
+            int oldLine = oldStart;
+            for (int e = first; e <= last; e += 1) {
+                Edit edit = edits.get(e);
+                for (; oldLine < edit.oldStart; oldLine += 1) {
+                    appendLine(out, ' ', oldLines.get(oldLine));
+                }
+                for (int l = edit.oldStart; l < edit.oldEnd; l += 1) {
+                    appendLine(out, '-', oldLines.get(l));
+                }
+                for (int l = edit.newStart; l < edit.newEnd; l += 1) {
+                    appendLine(out, '+', newLines.get(l));
+                }
+                oldLine = edit.oldEnd;
+            }
+            for (; oldLine < lastEdit.oldEnd + after; oldLine += 1) {
+                appendLine(out, ' ', oldLines.get(oldLine));
+            }
+            first = last + 1;
+        }
+    }
+
+    // a hunk range as unified diffs write it:an empty range names the line before it,and a count of 1 is left out
+    private static String range(int start, int count) {
+        if (count == 0) {
+            return start + ",0";
+        }
+        return count == 1 ? Integer.toString(start + 1) : (start + 1) + "," + count;
+    }
+
+    private static void appendLine(StringBuilder out, char prefix, String line) {
+        out.append(prefix).append(line);
+        if (!line.endsWith("\n")) {
+            out.append("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Returns the number of lines EDITS delete and insert, in that order. */
+    static int[] countLines(List<Edit> edits) {
+        int[] counts = new int[2];
+        for (Edit edit : edits) {
+            counts[0] += edit.oldEnd - edit.oldStart;
+            counts[1] += edit.newEnd - edit.newStart;
+        }
+        return counts;
+    }
+
+    /** Appends the --stat lines of the files in PATHS to OUT, where
+     *  COUNTS holds the deleted and inserted lines of each file, or null
+     *  for a binary one. */
+    static void writeStat(StringBuilder out, List<String> paths, List<int[]> counts) {
+        int nameWidth = 0;
+        int mostChanged = 0;
+        int deletions = 0;
+        int insertions = 0;
+        for (int f = 0; f < paths.size(); f += 1) {
+            nameWidth = Math.max(nameWidth, paths.get(f).length());
+            int[] count = counts.get(f);
+            if (count != null) {
+                mostChanged = Math.max(mostChanged, count[0] + count[1]);
+                deletions += count[0];
+                insertions += count[1];
+            }
+        }
+        int countWidth = Integer.toString(mostChanged).length();
+        for (int f = 0; f < paths.size(); f += 1) {
+            int[] count = counts.get(f);
+            out.append(' ').append(paths.get(f));
+            for (int pad = paths.get(f).length(); pad < nameWidth; pad += 1) {
+                out.append(' ');
+            }
+            out.append(" | ");
+            if (count == null) {
+                out.append("Bin\n");
+                continue;
+            }
+            String changed = Integer.toString(count[0] + count[1]);
+            for (int pad = changed.length(); pad < countWidth; pad += 1) {
+                out.append(' ');
+            }
+            out.append(changed);
+            int minus = count[0];
+            int plus = count[1];
+            // a long bar is scaled down,but a file with changes keeps at least one mark of each kind it has
+            if (mostChanged > STAT_WIDTH) {
+                minus = scale(count[0], mostChanged);
+                plus = scale(count[1], mostChanged);
+            }
+            if (minus + plus > 0) {
+                out.append(' ');
+            }
+            for (int i = 0; i < plus; i += 1) {
+                out.append('+');
+            }
+            for (int i = 0; i < minus; i += 1) {
+                out.append('-');
+            }
+            out.append('\n');
+        }
+        out.append(' ').append(paths.size()).append(paths.size() == 1 ? " file changed" : " files changed");
+        if (insertions > 0 || deletions == 0) {
+            out.append(", ").append(insertions).append(insertions == 1 ? " insertion(+)" : " insertions(+)");
+        }
+        if (deletions > 0 || insertions == 0) {
+            out.append(", ").append(deletions).append(deletions == 1 ? " deletion(-)" : " deletions(-)");
+        }
+        out.append('\n');
+    }
+
+    private static int scale(int lines, int mostChanged) {
+        if (lines == 0) {
+            return 0;
+        }
+        return Math.max(1, (int) ((long) lines * STAT_WIDTH / mostChanged));
+    }
+}
@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/** The three-way merge of two versions of a file line by line, given the
+ *  version they both came from, as diff3 does it.
+ *
+ *  Both versions are diffed against the base. Changes of one side that no
+ *  change of the other side overlaps or touches are taken as they are, and
+ *  so are changes both sides made the same way; only where the two sides
+ *  changed the same lines differently are both of their versions of those
+ *  lines written between conflict markers, as gitlet has always marked a
+ *  conflicted file:
+ *
+ *      <<<<<<< HEAD
+ *      the lines of the current branch
+ *      =======
+ *      the lines of the given branch
+ *      >>>>>>>
+ *
+ *  The result is written line by line into a Writer, so a large file is
+ *  never built up as a single String.
+ *
+ *  @author BoLee
+ */
+class LineMerge {
+    private static final String CURRENT_MARKER = "<<<<<<< HEAD\n";
+    private static final String SEPARATOR = "=======\n";
+    private static final String OTHER_MARKER = ">>>>>>>\n";
+
+    /** Writes the merge of CURRENT and OTHER, which both came from BASE,
+     *  into OUT, and returns whether any lines conflict. Every list holds
+     *  lines as LineDiff.splitLines returns them. */
+    static boolean merge(List<String> base, List<String> current, List<String> other, Writer out)
+            throws IOException {
+        List<LineDiff.Edit> currentEdits = LineDiff.diff(base, current, LineDiff.Algorithm.MYERS);
+        List<LineDiff.Edit> otherEdits = LineDiff.diff(base, other, LineDiff.Algorithm.MYERS);
+        boolean conflicted = false;
+        // the next base line to write,and the next edit of either side
+        int baseLine = 0;
+        int c = 0;
+        int o = 0;
+        while (c < currentEdits.size() || o < otherEdits.size()) {
+            // a chunk starts at the first edit of either side and takes in every edit that overlaps or touches it
+            int chunkStart = Math.min(c < currentEdits.size() ? currentEdits.get(c).oldStart : Integer.MAX_VALUE,
+                    o < otherEdits.size() ? otherEdits.get(o).oldStart : Integer.MAX_VALUE);
+            int chunkEnd = chunkStart;
+            int firstC = c;
+            int firstO = o;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (c < currentEdits.size() && currentEdits.get(c).oldStart <= chunkEnd) {
+                    chunkEnd = Math.max(chunkEnd, currentEdits.get(c).oldEnd);
+                    c += 1;
+                    grown = true;
+                }
+                if (o < otherEdits.size() && otherEdits.get(o).oldStart <= chunkEnd) {
+                    chunkEnd = Math.max(chunkEnd, otherEdits.get(o).oldEnd);
+                    o += 1;
+                    grown = true;
+                }
+            }
+            writeLines(out, base, baseLine, chunkStart);
+            baseLine = chunkEnd;
+            if (firstO == o) {
+                writeLines(out, current, sideStart(currentEdits.get(firstC), chunkStart),
+                        sideEnd(currentEdits.get(c - 1), chunkEnd));
+                continue;
+            }
+            if (firstC == c) {
+                writeLines(out, other, sideStart(otherEdits.get(firstO), chunkStart),
+                        sideEnd(otherEdits.get(o - 1), chunkEnd));
+                continue;
+            }
+            int currentStart = sideStart(currentEdits.get(firstC), chunkStart);
+            int currentEnd = sideEnd(currentEdits.get(c - 1), chunkEnd);
+            int otherStart = sideStart(otherEdits.get(firstO), chunkStart);
+            int otherEnd = sideEnd(otherEdits.get(o - 1), chunkEnd);
+            if (current.subList(currentStart, currentEnd).equals(other.subList(otherStart, otherEnd))) {
+                // both sides made the same change
+                writeLines(out, current, currentStart, currentEnd);
+                continue;
+            }
+            conflicted = true;
+            out.write(CURRENT_MARKER);
+            writeConflictLines(out, current, currentStart, currentEnd);
+            out.write(SEPARATOR);
+            writeConflictLines(out, other, otherStart, otherEnd);
+            out.write(OTHER_MARKER);
+        }
+        writeLines(out, base, baseLine, base.size());
+        return conflicted;
+    }
+
+    // the line of a side where the chunk starting at base line chunkStart starts,given the first edit of the side
+    // in the chunk:the base lines before that edit are unchanged on this side
+    private static int sideStart(LineDiff.Edit first, int chunkStart) {
+        return first.newStart - (first.oldStart - chunkStart);
+    }
+
+    private static int sideEnd(LineDiff.Edit last, int chunkEnd) {
+        return last.newEnd + (chunkEnd - last.oldEnd);
+    }
+
+    private static void writeLines(Writer out, List<String> lines, int from, int to) throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(lines.get(i));
+        }
+    }
+
+    // a marker always starts a line of its own,even after a last line without a newline
+    private static void writeConflictLines(Writer out, List<String> lines, int from, int to) throws IOException {
+        writeLines(out, lines, from, to);
+        if (to > from && !lines.get(to - 1).endsWith("\n")) {
+            out.write('\n');
+        }
+    }
+}
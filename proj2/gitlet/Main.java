@@ -1,6 +1,9 @@
 package gitlet;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author BoLee
@@ -14,14 +17,21 @@ public class Main {
         if(argNum == 0) Utils.exitWithError("Please enter a command.");
         String firstArg = args[0];
         try {
+            if(!firstArg.equals("init") && Repository.GITLET_DIR.exists()){
+                // commands that only read run side by side,the ones that change the repository one at a time.
+                // an old commits_record is converted into the commit log the first time it is read,which is a write
+                RepositoryLock.acquire(isReadOnly(args) && !Repository.COMMITS_RECORD.exists());
+                // objects that a crash left missing or cut short are moved into place again or dropped before anything reads them
+                Journal.recover();
+            }
             switch(firstArg) {
                 case "init":
                     Repository.repositorySetup();
                     break;
                 case "add":
-                    // handle the `add [filename]` command
-                    String filePath = args[1];
-                    Repository.addFile(filePath);
+                    // handle the `add [filename]...` command,a directory stands for the files under it
+                    if(argNum < 2)Utils.exitWithError("Incorrect operands.");
+                    Repository.addFiles(Arrays.asList(args).subList(1,argNum));
                     break;
                 case "commit":
                     String message = args[1];
@@ -37,7 +47,11 @@ public class Main {
                     Repository.printGlobalLog();
                     break;
                 case "find":
-                    Repository.find(args[1]);
+                    if(argNum == 3 && args[1].equals("--substring")){
+                        Repository.findSubstring(args[2]);
+                    }else{
+                        Repository.find(args[1]);
+                    }
                     break;
                 case "status":
                     Repository.printStatus();
@@ -67,6 +81,47 @@ public class Main {
                 case "merge":
                     Repository.merge(args[1]);
                     break;
+                case "merge-base":
+                    // handle the `merge-base [--all] [commit] [commit]` command,a branch stands for its commit
+                    if(argNum == 4 && args[1].equals("--all")){
+                        Repository.printMergeBases(args[2],args[3],true);
+                    }else if(argNum == 3){
+                        Repository.printMergeBases(args[1],args[2],false);
+                    }else{
+                        Utils.exitWithError("Incorrect operands.");
+                    }
+                    break;
+                case "diff":
+                    // handle the `diff [--stat] [--patience|--histogram] [commit [commit]]` command
+                    List<String> names = new ArrayList<>();
+                    LineDiff.Algorithm algorithm = LineDiff.Algorithm.MYERS;
+                    boolean stat = false;
+                    for(String arg : Arrays.asList(args).subList(1,argNum)){
+                        if(arg.equals("--stat"))stat = true;
+                        else if(arg.equals("--myers"))algorithm = LineDiff.Algorithm.MYERS;
+                        else if(arg.equals("--patience"))algorithm = LineDiff.Algorithm.PATIENCE;
+                        else if(arg.equals("--histogram"))algorithm = LineDiff.Algorithm.HISTOGRAM;
+                        else if(arg.startsWith("--"))Utils.exitWithError("Incorrect operands.");
+                        else names.add(arg);
+                    }
+                    if(names.size() > 2)Utils.exitWithError("Incorrect operands.");
+                    Repository.printDiff(names,algorithm,stat);
+                    break;
+                case "migrate":
+                    Repository.migrate();
+                    break;
+                case "repack":
+                    Repository.repack();
+                    break;
+                case "config":
+                    if(argNum == 2){
+                        Config.printValue(args[1]);
+                    }else if(argNum == 3){
+                        Config.set(args[1],args[2]);
+                    }else{
+                        Utils.exitWithError("Incorrect operands.");
+                    }
+                    break;
                 default:
                     Utils.exitWithError("No command with that name exists.");
                     break;
@@ -75,4 +130,21 @@ public class Main {
             System.out.println("fuckyou");
         }
     }
+    // whether the command only reads the repository.find and status also keep caches up to date,which they only
+    // write after taking the lock alone(see RepositoryLock.upgrade)
+    private static boolean isReadOnly(String[] args){
+        switch(args[0]){
+            case "log":
+            case "global-log":
+            case "find":
+            case "status":
+            case "diff":
+            case "merge-base":
+                return true;
+            case "config":
+                return args.length == 2;
+            default:
+                return false;
+        }
+    }
 }
@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** An inverted index from commit messages to commits, used by find.
+ *
+ *  Every record is  key | offset of the commit in the CommitLog,  where the
+ *  key is a 64-bit hash of either the whole message or one of its trigrams
+ *  (three consecutive characters). A message is found by looking its hash
+ *  up, a substring by intersecting the commits of all its trigrams; the
+ *  candidates are then read from the log and checked, as hashes can
+ *  collide. Records sort by key and then by offset, so the commits of a key
+ *  come out in the order they were made.
+ *
+ *  The index covers the log up to a recorded offset and is brought up to
+ *  date from there on every commit and before every lookup, so it is
+ *  never rebuilt and catches up by itself after a crash or when it is
+ *  missing.
+ *
+ *  @author BoLee
+ */
+class MessageIndex {
+    private static final int KEY_SIZE = 8;
+    private static final int RECORD_SIZE = KEY_SIZE + 8;
+    private static final int GRAM = 3;
+    private static final byte EXACT_TAG = 'E';
+    private static final byte TRIGRAM_TAG = 'T';
+
+    /** Indexes the commits that were added to the log since the last
+     *  update. */
+    static void update() {
+        try {
+            SortedIndexFile index = new SortedIndexFile(Repository.MESSAGE_INDEX, RECORD_SIZE);
+            long covered = index.getCovered();
+            List<byte[]> records = new ArrayList<>();
+            long end = CommitLog.forEachFrom(covered, (offset, commit) -> {
+                // a long history that is indexed for the first time is added in batches
+                if (records.size() >= SortedIndexFile.MAX_TAIL) {
+                    try {
+                        index.append(records, offset);
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                    records.clear();
+                }
+                String message = commit.getMessage();
+                records.add(record(hash(EXACT_TAG, message), offset));
+                for (String trigram : trigrams(message)) {
+                    records.add(record(hash(TRIGRAM_TAG, trigram), offset));
+                }
+            });
+            if (end != covered) {
+                index.append(records, end);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Brings the index up to date before a lookup. Every commit updates
+     *  it, so it is only behind the log after a crash or when it was
+     *  deleted; find holds the repository lock shared, and takes it alone
+     *  to write the index then. */
+    private static void catchUp() {
+        try {
+            SortedIndexFile index = new SortedIndexFile(Repository.MESSAGE_INDEX, RECORD_SIZE);
+            // only whole records count, so a record that a crash cut short at the end of the log does not
+            // make every lookup take the lock alone until the next commit truncates it
+            long covered = index.getCovered();
+            if (CommitLog.forEachFrom(covered, (offset, commit) -> { }) == covered) {
+                return;
+            }
+            RepositoryLock.upgrade();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        update();
+    }
+
+    /** Returns the commits whose message is MESSAGE, in the order they
+     *  were made. */
+    static List<Commit> findExact(String message) {
+        catchUp();
+        List<Commit> found = new ArrayList<>();
+        for (Commit commit : CommitLog.readAt(lookup(hash(EXACT_TAG, message)))) {
+            if (commit.getMessage().equals(message)) {
+                found.add(commit);
+            }
+        }
+        return found;
+    }
+
+    /** Returns the commits whose message contains TEXT, in the order they
+     *  were made. */
+    static List<Commit> findSubstring(String text) {
+        catchUp();
+        Set<String> trigrams = trigrams(text);
+        List<Commit> found = new ArrayList<>();
+        if (trigrams.isEmpty()) {
+            // too short to have a trigram,every message has to be checked
+            CommitLog.forEach(commit -> {
+                if (commit.getMessage().contains(text)) {
+                    found.add(commit);
+                }
+            });
+            return found;
+        }
+        TreeSet<Long> candidates = null;
+        for (String trigram : trigrams) {
+            TreeSet<Long> offsets = lookup(hash(TRIGRAM_TAG, trigram));
+            if (candidates == null) {
+                candidates = offsets;
+            } else {
+                candidates.retainAll(offsets);
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+        for (Commit commit : CommitLog.readAt(candidates)) {
+            if (commit.getMessage().contains(text)) {
+                found.add(commit);
+            }
+        }
+        return found;
+    }
+
+    // the log offsets of the commits recorded under KEY,without duplicates
+    private static TreeSet<Long> lookup(long key) {
+        try {
+            SortedIndexFile index = new SortedIndexFile(Repository.MESSAGE_INDEX, RECORD_SIZE);
+            TreeSet<Long> offsets = new TreeSet<>();
+            for (byte[] record : index.find(ByteBuffer.allocate(KEY_SIZE).putLong(key).array())) {
+                offsets.add(ByteBuffer.wrap(record).getLong(KEY_SIZE));
+            }
+            return offsets;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static byte[] record(long key, long offset) {
+        return ByteBuffer.allocate(RECORD_SIZE).putLong(key).putLong(offset).array();
+    }
+
+    private static Set<String> trigrams(String text) {
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            trigrams.add(text.substring(i, i + GRAM));
+        }
+        return trigrams;
+    }
+
+    /** 64-bit FNV-1a over TAG and the UTF-8 bytes of TEXT. */
+    private static long hash(byte tag, String text) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ tag) * 0x100000001b3L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
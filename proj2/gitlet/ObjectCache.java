@@ -0,0 +1,67 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The decoded commits, trees and blobs that getObject has handed out, by id, so
+ *  that a command reading the same object again does not read and decode
+ *  it again. Objects never change once they are stored, so an entry never
+ *  goes stale; the least recently used ones are dropped once the entries
+ *  take more than core.objectCache bytes, as estimated by the objects.
+ *
+ *  @author BoLee
+ */
+class ObjectCache {
+    private static class Entry {
+        final Serializable object;
+        final long footprint;
+
+        Entry(Serializable object, long footprint) {
+            this.object = object;
+            this.footprint = footprint;
+        }
+    }
+
+    // in access order,so the first entry is the least recently used one
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long capacity = -1;
+    private static long footprint;
+
+    /** Returns the object with id OBJECTID, or null if it is not cached. */
+    static synchronized Serializable get(String objectID) {
+        Entry entry = entries.get(objectID);
+        return entry == null ? null : entry.object;
+    }
+
+    /** Caches OBJECT, a Commit, a Tree or a Blob, under OBJECTID. */
+    static synchronized void put(String objectID, Serializable object) {
+        if (capacity < 0) {
+            capacity = Config.getInt(Config.OBJECT_CACHE);
+        }
+        long objectFootprint;
+        if (object instanceof Commit) {
+            objectFootprint = ((Commit) object).memoryFootprint();
+        } else if (object instanceof Blob) {
+            objectFootprint = ((Blob) object).memoryFootprint();
+        } else if (object instanceof Tree) {
+            objectFootprint = ((Tree) object).memoryFootprint();
+        } else {
+            return;
+        }
+        if (objectFootprint > capacity) {
+            return;
+        }
+        Entry previous = entries.put(objectID, new Entry(object, objectFootprint));
+        if (previous != null) {
+            footprint -= previous.footprint;
+        }
+        footprint += objectFootprint;
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (footprint > capacity) {
+            footprint -= eldest.next().getValue().footprint;
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** A compact, versioned binary encoding of gitlet's objects, used instead of
+ *  Java serialization for everything under .gitlet.
+ *
+ *  Every encoded object starts with the header  'G' | type | version,  and
+ *  then uses three building blocks: unsigned LEB128 varints, raw 20-byte ids
+ *  and varint-length-prefixed UTF-8 strings. The layout of each type lives in
+ *  the encode/decode methods of its class.
+ *
+ *  Files written by Java serialization start with 0xACED instead of the
+ *  header, and are still read (see LegacyFormat), so existing repositories
+ *  keep working and are converted as they are rewritten.
+ *
+ *  @author BoLee
+ */
+class ObjectCodec {
+    static final byte MAGIC = 'G';
+    static final byte TYPE_COMMIT = 1;
+    static final byte TYPE_BLOB = 2;
+    static final byte TYPE_INDEX = 3;
+    static final byte TYPE_COMMIT_RECORD = 4;
+    // a piece of a large blob,its header is followed by the raw bytes of the piece
+    static final byte TYPE_CHUNK = 5;
+    static final byte TYPE_TREE = 6;
+    static final int HEADER_SIZE = 3;
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xac;
+
+    /** Returns the encoded bytes of OBJ, header included. */
+    static byte[] encode(Serializable obj) {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(stream);
+            if (obj instanceof Commit) {
+                writeHeader(out, TYPE_COMMIT, ((Commit) obj).getCodecVersion());
+                ((Commit) obj).encode(out);
+            } else if (obj instanceof Blob) {
+                writeHeader(out, TYPE_BLOB, Blob.CODEC_VERSION);
+                ((Blob) obj).encode(out);
+            } else if (obj instanceof Tree) {
+                writeHeader(out, TYPE_TREE, Tree.CODEC_VERSION);
+                ((Tree) obj).encode(out);
+            } else if (obj instanceof Index) {
+                writeHeader(out, TYPE_INDEX, Index.CODEC_VERSION);
+                ((Index) obj).encode(out);
+            } else if (obj instanceof CommitRecord) {
+                writeHeader(out, TYPE_COMMIT_RECORD, CommitRecord.CODEC_VERSION);
+                ((CommitRecord) obj).encode(out);
+            } else {
+                throw new IllegalArgumentException("no encoding for " + obj.getClass());
+            }
+            out.close();
+            return stream.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding %s.", obj.getClass().getSimpleName());
+        }
+    }
+
+    /** Returns the object of type T encoded in CONTENT, which may also be in
+     *  the legacy Java serialization format. */
+    static <T extends Serializable> T decode(byte[] content, Class<T> expectedClass) {
+        return decode(new ByteArrayInputStream(content), null, expectedClass);
+    }
+
+    /** Returns the object of type T read from IN, whose id is OBJECTID (null
+     *  for files that are not objects). A blob is decoded from its header
+     *  alone, the rest of IN is left unread. */
+    static <T extends Serializable> T decode(InputStream in, String objectID, Class<T> expectedClass) {
+        try {
+            BufferedInputStream buffered = new BufferedInputStream(in);
+            buffered.mark(1);
+            int firstByte = buffered.read();
+            buffered.reset();
+            if (firstByte == JAVA_SERIALIZATION_MAGIC) {
+                return LegacyFormat.decode(buffered.readAllBytes(), expectedClass);
+            }
+            DataInputStream data = new DataInputStream(buffered);
+            if (data.readByte() != MAGIC) {
+                throw new IllegalArgumentException("not a gitlet object");
+            }
+            byte type = data.readByte();
+            int version = data.readUnsignedByte();
+            Object result;
+            switch (type) {
+                case TYPE_COMMIT:
+                    result = Commit.decode(data, version);
+                    break;
+                case TYPE_BLOB:
+                    result = Blob.decode(data, version, objectID);
+                    break;
+                case TYPE_TREE:
+                    result = Tree.decode(data, version);
+                    break;
+                case TYPE_INDEX:
+                    result = Index.decode(data, version);
+                    break;
+                case TYPE_COMMIT_RECORD:
+                    result = CommitRecord.decode(data, version);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown object type " + type);
+            }
+            return expectedClass.cast(result);
+        } catch (IOException | ClassCastException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Reads the header of an object of type TYPE from IN and returns its
+     *  version. */
+    static int readHeader(DataInputStream in, byte type) throws IOException {
+        if (in.readByte() != MAGIC || in.readByte() != type) {
+            throw new IOException("unexpected object type");
+        }
+        return in.readUnsignedByte();
+    }
+
+    /** Returns true if CONTENT was written by Java serialization. */
+    static boolean isLegacy(byte[] content) {
+        return content.length > 0 && (content[0] & 0xff) == JAVA_SERIALIZATION_MAGIC;
+    }
+
+    /** Returns CONTENT re-encoded in the current format if it is legacy,
+     *  or CONTENT itself otherwise. */
+    static byte[] migrate(byte[] content) {
+        if (!isLegacy(content)) {
+            return content;
+        }
+        return encode(decode(content, Serializable.class));
+    }
+
+    /** Return an object of type T read from FILE. */
+    static <T extends Serializable> T readObject(File file, Class<T> expectedClass) {
+        return decode(Utils.readContents(file), expectedClass);
+    }
+
+    /** Write OBJ to FILE in the current encoding. */
+    static void writeObject(File file, Serializable obj) {
+        Utils.writeContents(file, encode(obj));
+    }
+
+    /* BUILDING BLOCKS */
+
+    static void writeHeader(DataOutputStream out, byte type, int version) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(type);
+        out.writeByte(version);
+    }
+
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /** Returns the number of bytes writeVarint writes for VALUE. */
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size += 1;
+        }
+        return size;
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    static void writeId(DataOutputStream out, String id) throws IOException {
+        out.write(Utils.idToBytes(id));
+    }
+
+    static String readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[Utils.UID_LENGTH / 2];
+        in.readFully(id);
+        return Utils.bytesToId(id, 0);
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new EOFException("length out of range");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    /** Writes a map from paths to object ids. */
+    static void writePathMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        writeVarint(out, map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeId(out, entry.getValue());
+        }
+    }
+
+    static HashMap<String, String> readPathMap(DataInputStream in) throws IOException {
+        int size = (int) readVarint(in);
+        HashMap<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i += 1) {
+            String path = readString(in);
+            map.put(path, readId(in));
+        }
+        return map;
+    }
+}
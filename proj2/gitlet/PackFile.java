@@ -0,0 +1,441 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
+
+/** A packfile holds many objects in one append-only data file (pack-X.pack)
+ *  next to a sorted index (pack-X.idx), so that looking an object up costs a
+ *  binary search instead of a directory lookup, open and close per object.
+ *
+ *  pack-X.pack:  "GPAK" | version | object count | entries... | sha1 trailer
+ *                where every entry is  type byte | long length | data, and
+ *                data is either the object exactly as it is stored loose
+ *                (OBJ_WHOLE) or the 20-byte id of a base object in the same
+ *                pack followed by a deflated Delta from it (OBJ_DELTA)
+ *  pack-X.idx:   "GIDX" | version | fanout[256] | sorted 20-byte ids | offsets
+ *
+ *  fanout[b] is the number of ids whose first byte is <= b, so the ids starting
+ *  with byte b sit in [fanout[b-1], fanout[b]) and only that range is searched.
+ *
+ *  A pack that was cut short is refused when it is opened, as its last entry
+ *  and trailer have to end exactly where the file does. The trailer itself
+ *  is only checked by verify, which reads the whole pack.
+ *
+ *  Reading a delta means rebuilding its base first, so chains are at most
+ *  MAX_DELTA_DEPTH long and rebuilt objects are kept in a small LRU cache,
+ *  which makes reading several versions of a file cost one rebuild each.
+ *
+ *  @author BoLee
+ */
+public class PackFile {
+    private static final int PACK_MAGIC = 0x4750414b;
+    private static final int IDX_MAGIC = 0x47494458;
+    private static final int PACK_VERSION = 2;
+    private static final int IDX_VERSION = 1;
+    private static final int FANOUT_SIZE = 256;
+    private static final int ID_SIZE = Utils.UID_LENGTH / 2;
+    // magic and version of the idx file, before the fanout table
+    private static final int IDX_HEADER_SIZE = 8;
+    private static final int PACK_HEADER_SIZE = 12;
+    /** An entry holding an object exactly as it would be stored loose. */
+    static final byte OBJ_WHOLE = 1;
+    /** An entry holding a delta against another object of the pack. */
+    static final byte OBJ_DELTA = 2;
+    // type byte and long length in front of every entry
+    private static final int ENTRY_HEADER_SIZE = 9;
+    // the longest chain of deltas that has to be followed to rebuild an object
+    static final int MAX_DELTA_DEPTH = 10;
+    // objects larger than this are always stored whole,as deltas are built in memory
+    static final int MAX_DELTA_SIZE = 16 * 1024 * 1024;
+    // total size of the rebuilt objects kept for the next rebuild
+    private static final long CACHE_SIZE = 32L * 1024 * 1024;
+    private static final LinkedHashMap<String, byte[]> rebuiltCache = new LinkedHashMap<>(16, 0.75f, true);
+    private static long rebuiltCacheBytes = 0;
+
+    /** Where write takes the stored bytes of each object from. */
+    interface Source {
+        long length(String objectID) throws IOException;
+        InputStream open(String objectID) throws IOException;
+    }
+
+    private final File packFile;
+    private final File idxFile;
+    private final MappedByteBuffer idx;
+    private final FileChannel pack;
+    private final int count;
+
+    public PackFile(File idxFile) throws IOException {
+        this.idxFile = idxFile;
+        String name = idxFile.getName();
+        this.packFile = new File(idxFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        try (FileChannel channel = FileChannel.open(idxFile.toPath())) {
+            idx = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(idx.capacity() < idOffset(0) || idx.getInt(0) != IDX_MAGIC || idx.getInt(4) != IDX_VERSION)
+            throw Utils.error("Corrupted pack index %s.", name);
+        count = fanout(FANOUT_SIZE - 1);
+        if(idx.capacity() != idOffset(count) + 8L * count)throw Utils.error("Corrupted pack index %s.", name);
+        pack = FileChannel.open(packFile.toPath());
+        checkLength();
+    }
+    // the header has to match the index,and the pack has to end right after its last entry and the trailer
+    private void checkLength() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PACK_HEADER_SIZE);
+        while(header.hasRemaining()){
+            if(pack.read(header, header.position()) < 0)throw Utils.error("Truncated pack %s.", packFile.getName());
+        }
+        if(header.getInt(0) != PACK_MAGIC || header.getInt(4) != PACK_VERSION || header.getInt(8) != count)
+            throw Utils.error("Corrupted pack %s.", packFile.getName());
+        int last = -1;
+        for(int i = 0;i < count;i++){
+            if(last < 0 || packOffset(i) > packOffset(last))last = i;
+        }
+        long end = last < 0 ? PACK_HEADER_SIZE : packOffset(last) + ENTRY_HEADER_SIZE + entryHeader(last).getLong(1);
+        if(pack.size() != end + ID_SIZE)throw Utils.error("Truncated pack %s.", packFile.getName());
+    }
+    /** Checks the trailer of this pack against everything before it, and
+     *  fails if the pack changed since it was written. It reads the whole
+     *  pack, so only repack calls it, before it folds the pack into a new
+     *  one and deletes it. */
+    public void verify() throws IOException {
+        MessageDigest digest = Utils.newSha1();
+        long end = pack.size() - ID_SIZE;
+        byte[] buffer = new byte[Blob.CHUNK_SIZE];
+        try (InputStream in = new RegionInputStream(pack, 0, end)) {
+            int n;
+            while((n = in.read(buffer)) > 0){
+                digest.update(buffer, 0, n);
+            }
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(ID_SIZE);
+        while(trailer.hasRemaining()){
+            if(pack.read(trailer, end + trailer.position()) < 0)throw Utils.error("Truncated pack %s.", packFile.getName());
+        }
+        if(!MessageDigest.isEqual(digest.digest(), trailer.array()))
+            throw Utils.error("Corrupted pack %s.", packFile.getName());
+    }
+
+    public int size() {
+        return count;
+    }
+    public File getPackFile() {
+        return packFile;
+    }
+    public File getIdxFile() {
+        return idxFile;
+    }
+    private int fanout(int firstByte) {
+        return idx.getInt(IDX_HEADER_SIZE + 4 * firstByte);
+    }
+    private int idOffset(int i) {
+        return IDX_HEADER_SIZE + 4 * FANOUT_SIZE + ID_SIZE * i;
+    }
+    private long packOffset(int i) {
+        return idx.getLong(idOffset(count) + 8 * i);
+    }
+    // the id stored at position i of the sorted id table
+    public String getId(int i) {
+        byte[] id = new byte[ID_SIZE];
+        idx.get(idOffset(i), id);
+        return Utils.bytesToId(id, 0);
+    }
+    // compare the id at position i of the id table with ID, as unsigned bytes
+    private int compareIdAt(int i, byte[] id) {
+        int base = idOffset(i);
+        for(int k = 0;k < ID_SIZE;k++){
+            int diff = (idx.get(base + k) & 0xff) - (id[k] & 0xff);
+            if(diff != 0)return diff;
+        }
+        return 0;
+    }
+    /** Returns the position of OBJECTID in the id table, or -1 if this pack
+     *  does not contain it. */
+    public int find(String objectID) {
+        // anything typed by the user that is not a full id names no object
+        if(objectID.length() != Utils.UID_LENGTH || !objectID.matches("[0-9a-f]+"))return -1;
+        byte[] id = Utils.idToBytes(objectID);
+        int firstByte = id[0] & 0xff;
+        int lo = firstByte == 0 ? 0 : fanout(firstByte - 1);
+        int hi = fanout(firstByte) - 1;
+        while(lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareIdAt(mid, id);
+            if(cmp == 0)return mid;
+            if(cmp < 0)lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return -1;
+    }
+    public boolean contains(String objectID) {
+        return find(objectID) >= 0;
+    }
+    // read the type byte and length in front of the entry at position i of the id table
+    private ByteBuffer entryHeader(int i) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        long offset = packOffset(i);
+        while(header.hasRemaining()){
+            if(pack.read(header, offset + header.position()) < 0)throw Utils.error("Truncated pack %s.", packFile.getName());
+        }
+        byte type = header.get(0);
+        if(type != OBJ_WHOLE && type != OBJ_DELTA)throw Utils.error("Unknown pack entry type %d.", type);
+        return header;
+    }
+    private InputStream openEntryData(int i, long length) {
+        long start = packOffset(i) + ENTRY_HEADER_SIZE;
+        return new RegionInputStream(pack, start, start + length);
+    }
+    /** Returns the stored length of OBJECTID, or -1 if it is not in this pack.
+     *  A delta is stored as the object it rebuilds. */
+    public long length(String objectID) throws IOException {
+        int i = find(objectID);
+        if(i < 0)return -1;
+        ByteBuffer header = entryHeader(i);
+        return header.get(0) == OBJ_WHOLE ? header.getLong(1) : rebuild(i).length;
+    }
+    /** Returns a stream over the stored bytes of OBJECTID, or null if it is
+     *  not in this pack. Streams read the pack at their own position, so
+     *  several of them can be open at once. */
+    public InputStream open(String objectID) throws IOException {
+        int i = find(objectID);
+        if(i < 0)return null;
+        ByteBuffer header = entryHeader(i);
+        if(header.get(0) == OBJ_DELTA)return new ByteArrayInputStream(rebuild(i));
+        return openEntryData(i, header.getLong(1));
+    }
+    /** Returns the range of this pack that holds the stored bytes of
+     *  OBJECTID, or null if it is not in this pack or is stored as a delta. */
+    public StoredRegion region(String objectID) throws IOException {
+        int i = find(objectID);
+        if(i < 0)return null;
+        ByteBuffer header = entryHeader(i);
+        if(header.get(0) != OBJ_WHOLE)return null;
+        return new StoredRegion(pack, packOffset(i) + ENTRY_HEADER_SIZE, header.getLong(1), false);
+    }
+    // the encoded object at position i of the id table,inflated,and rebuilt from its base if it is a delta
+    private byte[] rebuild(int i) throws IOException {
+        String objectID = getId(i);
+        byte[] cached = getRebuilt(objectID);
+        if(cached != null)return cached;
+        ByteBuffer header = entryHeader(i);
+        byte[] result;
+        try (InputStream data = openEntryData(i, header.getLong(1))) {
+            if(header.get(0) == OBJ_WHOLE){
+                result = Compression.decompressingStream(data).readAllBytes();
+            }else{
+                byte[] baseId = data.readNBytes(ID_SIZE);
+                int base = find(Utils.bytesToId(baseId, 0));
+                if(base < 0)throw Utils.error("Missing delta base in pack %s.", packFile.getName());
+                byte[] delta;
+                try (InputStream inflater = new InflaterInputStream(data)) {
+                    delta = inflater.readAllBytes();
+                }
+                result = Delta.apply(rebuild(base), delta);
+            }
+        }
+        putRebuilt(objectID, result);
+        return result;
+    }
+    private static synchronized byte[] getRebuilt(String objectID) {
+        return rebuiltCache.get(objectID);
+    }
+    private static synchronized void putRebuilt(String objectID, byte[] content) {
+        if(content.length > CACHE_SIZE / 4)return;
+        byte[] previous = rebuiltCache.put(objectID, content);
+        if(previous != null)rebuiltCacheBytes -= previous.length;
+        rebuiltCacheBytes += content.length;
+        Iterator<byte[]> oldest = rebuiltCache.values().iterator();
+        while(rebuiltCacheBytes > CACHE_SIZE && oldest.hasNext()){
+            rebuiltCacheBytes -= oldest.next().length;
+            oldest.remove();
+        }
+    }
+    public void close() throws IOException {
+        pack.close();
+    }
+
+    /** Writes the objects IDS into a new pack in PACKDIR, in that order,
+     *  taking the stored bytes of every object from SOURCE, and returns the
+     *  new pack. An object that DELTABASES maps to a base written before it
+     *  is stored as a delta against that base when this saves at least half
+     *  of its size. The pack is written before its index, so a pack only
+     *  becomes visible once it is complete. */
+    public static PackFile write(File packDir, List<String> ids, Source source,
+                                 Map<String, String> deltaBases) throws IOException {
+        List<String> sortedIds = new ArrayList<>(ids);
+        sortedIds.sort(null);
+        String packName = "pack-" + Utils.sha1(new ArrayList<Object>(sortedIds));
+        File tmpPack = new File(packDir, "tmp-" + packName + ".pack");
+        File tmpIdx = new File(packDir, "tmp-" + packName + ".idx");
+        HashMap<String, Long> offsetOf = new HashMap<>();
+        HashMap<String, Integer> depthOf = new HashMap<>();
+        DeltaSource deltaSource = new DeltaSource(source);
+
+        MessageDigest digest = Utils.newSha1();
+        byte[] buffer = new byte[Blob.CHUNK_SIZE];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DigestOutputStream(new FileOutputStream(tmpPack), digest)))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(PACK_VERSION);
+            out.writeInt(ids.size());
+            long offset = PACK_HEADER_SIZE;
+            for(String objectID : ids){
+                long length = source.length(objectID);
+                offsetOf.put(objectID, offset);
+                String baseID = deltaBases.get(objectID);
+                byte[] delta = null;
+                if(baseID != null && offsetOf.containsKey(baseID)
+                        && depthOf.getOrDefault(baseID, 0) < MAX_DELTA_DEPTH){
+                    delta = deltaSource.compressedDelta(baseID, objectID, length / 2 - ID_SIZE);
+                }
+                if(delta != null){
+                    depthOf.put(objectID, depthOf.getOrDefault(baseID, 0) + 1);
+                    out.writeByte(OBJ_DELTA);
+                    out.writeLong(ID_SIZE + delta.length);
+                    out.write(Utils.idToBytes(baseID));
+                    out.write(delta);
+                    offset += ENTRY_HEADER_SIZE + ID_SIZE + delta.length;
+                    continue;
+                }
+                out.writeByte(OBJ_WHOLE);
+                out.writeLong(length);
+                // objects are copied through in chunks,however large they are
+                long copied = 0;
+                try (InputStream in = source.open(objectID)) {
+                    int n;
+                    while((n = in.read(buffer)) > 0){
+                        out.write(buffer, 0, n);
+                        copied += n;
+                    }
+                }
+                if(copied != length)throw Utils.error("Object %s changed while being packed.", objectID);
+                offset += ENTRY_HEADER_SIZE + length;
+            }
+            out.flush();
+            // the trailer covers everything before it, for verify
+            out.write(digest.digest());
+        }
+        int[] fanout = new int[FANOUT_SIZE];
+        for(String id : sortedIds){
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        for(int b = 1;b < FANOUT_SIZE;b++){
+            fanout[b] += fanout[b - 1];
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIdx)))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(IDX_VERSION);
+            for(int b = 0;b < FANOUT_SIZE;b++){
+                out.writeInt(fanout[b]);
+            }
+            for(String id : sortedIds){
+                out.write(Utils.idToBytes(id));
+            }
+            for(String id : sortedIds){
+                out.writeLong(offsetOf.get(id));
+            }
+        }
+        File packFile = new File(packDir, packName + ".pack");
+        File idxFile = new File(packDir, packName + ".idx");
+        // both files are on disk before they get their names,and their names before any loose object is deleted
+        AtomicFile.force(tmpPack);
+        AtomicFile.force(tmpIdx);
+        if(!tmpPack.renameTo(packFile) || !tmpIdx.renameTo(idxFile))
+            throw Utils.error("Cannot install pack %s.", packName);
+        AtomicFile.syncDirectory(packDir);
+        return new PackFile(idxFile);
+    }
+    /** Returns the packs in PACKDIR, in name order. */
+    public static List<PackFile> listPacks(File packDir) throws IOException {
+        List<PackFile> packs = new ArrayList<>();
+        String[] names = packDir.list((dir, name) -> name.startsWith("pack-") && name.endsWith(".idx"));
+        if(names == null)return packs;
+        Arrays.sort(names);
+        for(String name : names){
+            packs.add(new PackFile(new File(packDir, name)));
+        }
+        return packs;
+    }
+
+    /** Reads the bytes in [start, end) of a channel without moving its position. */
+    private static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(position >= end)return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if(n < 0)throw Utils.error("Truncated pack.");
+            position += n;
+            return n;
+        }
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    /** Builds the deltas for write, remembering the last object it read
+     *  since the target of one delta is usually the base of the next. */
+    private static class DeltaSource {
+        private final Source source;
+        private String lastID;
+        private byte[] lastContent;
+
+        DeltaSource(Source source) {
+            this.source = source;
+        }
+        // the encoded object,or null if it is too large to be delta compressed
+        private byte[] content(String objectID) throws IOException {
+            if(objectID.equals(lastID))return lastContent;
+            byte[] content;
+            try (InputStream in = Compression.decompressingStream(source.open(objectID))) {
+                content = in.readNBytes(MAX_DELTA_SIZE + 1);
+            }
+            if(content.length > MAX_DELTA_SIZE)content = null;
+            lastID = objectID;
+            lastContent = content;
+            return content;
+        }
+        // the deflated delta from the base to the target,or null if it would be larger than LIMIT
+        byte[] compressedDelta(String baseID, String targetID, long limit) throws IOException {
+            if(limit <= 0)return null;
+            byte[] base = content(baseID);
+            if(base == null)return null;
+            byte[] target = content(targetID);
+            if(target == null)return null;
+            byte[] delta = Delta.create(base, target);
+            delta = Compression.deflate(delta, delta.length, Compression.level());
+            return delta.length <= limit ? delta : null;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Pairs files that were removed with files that were added by how much of
+ *  their content they share, so a file that was moved, and maybe changed a
+ *  little, can be followed to its new path.
+ *
+ *  The similarity of two files is the number of lines they have in common
+ *  over the number of lines of the longer one, in percent, and a pair is a
+ *  rename when it reaches Config.RENAME_THRESHOLD. Comparing every removed
+ *  file with every added one would read n * m pairs of line lists, so each
+ *  file is first reduced to a MinHash sketch of the hashes of its lines:
+ *  for each of SKETCH_SIZE hash functions, the smallest value it takes on
+ *  any line. Two sketches agree in about as many places as the Jaccard
+ *  similarity of the two sets of lines, and the sketches are cut into
+ *  bands of ROWS values that are hashed into buckets, so only files that
+ *  share a whole band with a removed file are ever compared with it. A
+ *  pair of files that can reach the threshold shares a band with a
+ *  probability of over 97%.
+ *
+ *  Files with the same content are paired first, then the best scoring
+ *  pairs, each file taking part in one rename at most.
+ *
+ *  @author BoLee
+ */
+class RenameDetector {
+    private static final int SKETCH_SIZE = 64;
+    private static final int ROWS = 2;
+    private static final long[] SEEDS = new long[SKETCH_SIZE];
+    static {
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < SKETCH_SIZE; i += 1) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /** The lines and the sketch of one file. */
+    private static final class Sketch {
+        final String filePath;
+        final String contentID;
+        // the hashes of all lines,sorted,so the lines two files share are counted by a merge
+        final long[] lines;
+        final long[] minHashes;
+
+        Sketch(String filePath, byte[] content) {
+            this.filePath = filePath;
+            this.contentID = Utils.sha1(content);
+            this.lines = lineHashes(content);
+            Arrays.sort(lines);
+            minHashes = new long[SKETCH_SIZE];
+            Arrays.fill(minHashes, Long.MAX_VALUE);
+            for (int l = 0; l < lines.length; l += 1) {
+                if (l > 0 && lines[l] == lines[l - 1]) {
+                    continue;
+                }
+                for (int i = 0; i < SKETCH_SIZE; i += 1) {
+                    minHashes[i] = Math.min(minHashes[i], mix(lines[l] ^ SEEDS[i]));
+                }
+            }
+        }
+
+        long bandKey(int band) {
+            long key = band;
+            for (int i = band * ROWS; i < (band + 1) * ROWS; i += 1) {
+                key = mix(key ^ minHashes[i]);
+            }
+            return key;
+        }
+    }
+
+    /** A removed and an added file that are similar enough to be a rename. */
+    private static final class Pair {
+        final int score;
+        final Sketch from;
+        final Sketch to;
+
+        Pair(int score, Sketch from, Sketch to) {
+            this.score = score;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /** Returns the renames among the files in REMOVED and ADDED, each a
+     *  map of file path to blob id, as a map of the new path to the old
+     *  one. */
+    static Map<String, String> detect(Map<String, String> removed, Map<String, String> added) {
+        TreeMap<String, String> renames = new TreeMap<>();
+        int threshold = Config.getInt(Config.RENAME_THRESHOLD);
+        if (threshold == 0 || removed.isEmpty() || added.isEmpty()) {
+            return renames;
+        }
+        List<Sketch> removedSketches = sketch(removed);
+        List<Sketch> addedSketches = sketch(added);
+        Set<String> pairedRemoved = new HashSet<>();
+        // the same content under another path
+        Map<String, Sketch> removedByContent = new HashMap<>();
+        for (Sketch sketch : removedSketches) {
+            removedByContent.putIfAbsent(sketch.contentID, sketch);
+        }
+        List<Sketch> unpaired = new ArrayList<>();
+        for (Sketch sketch : addedSketches) {
+            Sketch source = removedByContent.get(sketch.contentID);
+            // empty files are alike without being renames of each other
+            if (source != null && sketch.lines.length > 0 && !pairedRemoved.contains(source.filePath)) {
+                renames.put(sketch.filePath, source.filePath);
+                pairedRemoved.add(source.filePath);
+            } else {
+                unpaired.add(sketch);
+            }
+        }
+        // the removed files by the buckets of their bands
+        Map<Long, List<Sketch>> buckets = new HashMap<>();
+        for (Sketch sketch : removedSketches) {
+            if (pairedRemoved.contains(sketch.filePath) || sketch.lines.length == 0) {
+                continue;
+            }
+            for (int band = 0; band < SKETCH_SIZE / ROWS; band += 1) {
+                buckets.computeIfAbsent(sketch.bandKey(band), key -> new ArrayList<>()).add(sketch);
+            }
+        }
+        List<Pair> pairs = new ArrayList<>();
+        for (Sketch sketch : unpaired) {
+            if (sketch.lines.length == 0) {
+                continue;
+            }
+            Set<Sketch> candidates = new HashSet<>();
+            for (int band = 0; band < SKETCH_SIZE / ROWS; band += 1) {
+                candidates.addAll(buckets.getOrDefault(sketch.bandKey(band), new ArrayList<>()));
+            }
+            for (Sketch candidate : candidates) {
+                int score = similarity(candidate, sketch);
+                if (score >= threshold) {
+                    pairs.add(new Pair(score, candidate, sketch));
+                }
+            }
+        }
+        pairs.sort(Comparator.comparingInt((Pair pair) -> -pair.score)
+                .thenComparing(pair -> pair.to.filePath)
+                .thenComparing(pair -> pair.from.filePath));
+        for (Pair pair : pairs) {
+            if (!renames.containsKey(pair.to.filePath) && !pairedRemoved.contains(pair.from.filePath)) {
+                renames.put(pair.to.filePath, pair.from.filePath);
+                pairedRemoved.add(pair.from.filePath);
+            }
+        }
+        return renames;
+    }
+
+    private static List<Sketch> sketch(Map<String, String> files) {
+        List<Sketch> sketches = new ArrayList<>();
+        for (Map.Entry<String, String> entry : new TreeMap<>(files).entrySet()) {
+            byte[] content = Repository.getObject(entry.getValue(), Blob.class).getFileContent();
+            sketches.add(new Sketch(entry.getKey(), content));
+        }
+        return sketches;
+    }
+
+    // the lines two files have in common,as a percentage of the lines of the longer one
+    private static int similarity(Sketch one, Sketch two) {
+        int common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < one.lines.length && j < two.lines.length) {
+            if (one.lines[i] == two.lines[j]) {
+                common += 1;
+                i += 1;
+                j += 1;
+            } else if (one.lines[i] < two.lines[j]) {
+                i += 1;
+            } else {
+                j += 1;
+            }
+        }
+        return (int) (100L * common / Math.max(one.lines.length, two.lines.length));
+    }
+
+    // 64-bit FNV-1a of every line of content,without its newline
+    private static long[] lineHashes(byte[] content) {
+        List<Long> hashes = new ArrayList<>();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < content.length; i += 1) {
+            if (content[i] == '\n') {
+                hashes.add(hash);
+                hash = 0xcbf29ce484222325L;
+            } else {
+                hash = (hash ^ (content[i] & 0xff)) * 0x100000001b3L;
+            }
+        }
+        if (content.length > 0 && content[content.length - 1] != '\n') {
+            hashes.add(hash);
+        }
+        long[] lines = new long[hashes.size()];
+        for (int l = 0; l < lines.length; l += 1) {
+            lines[l] = hashes.get(l);
+        }
+        return lines;
+    }
+
+    /** The finalizer of SplitMix64, which spreads every bit of X over the
+     *  whole result. */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -1,10 +1,28 @@
 package gitlet;
 
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Serializable;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static gitlet.Utils.*;
 
@@ -20,12 +38,35 @@ public class Repository {
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     public static final File OBJECTS_DIR = join(GITLET_DIR,"objects");
+    // packfiles that objects are folded into by repack
+    public static final File PACK_DIR = join(OBJECTS_DIR,"pack");
     public static final File heads = join(GITLET_DIR,"refs","heads");
     public static final File MASTER = join(heads,"master");
     // HEAD point to the active branch
     public static final File HEAD = join(GITLET_DIR,"HEAD");
+    // every commit in the order they were made,for global-log and find
+    public static final File COMMIT_LOG = join(GITLET_DIR,"commit_log");
+    // commit messages to commits,for find
+    public static final File MESSAGE_INDEX = join(GITLET_DIR,"message_index");
+    // parents and generation numbers of all commits,for walking the history
+    public static final File COMMIT_GRAPH = join(GITLET_DIR,"commit_graph");
+    // what older versions kept instead of the commit log,it is converted when found
     public static final File COMMITS_RECORD = join(GITLET_DIR,"commits_record");
     public static final File INDEX = join(GITLET_DIR,"INDEX");
+    // the most KB of blobs that checkout workers write at the same time
+    private static final int CHECKOUT_IN_FLIGHT_KB = 64 * 1024;
+    // the largest version of a file,in bytes,that merge merges line by line;a larger one conflicts as a whole
+    private static final long MERGE_LINE_LIMIT = 8 << 20;
+    // the fewest hex digits an abbreviated commit id may have
+    public static final int MIN_ABBREV = 4;
+    // stands for the working file in place of a blob id in diff
+    private static final String WORKING_FILE = "";
+    // repository-level settings
+    public static final File CONFIG = join(GITLET_DIR,"config");
+    // the objects written since the last checkpoint,made durable with one fsync before a ref or the index moves on
+    public static final File JOURNAL = join(GITLET_DIR,"journal");
+    // held shared by commands that only read the repository,and alone by the ones that change it
+    public static final File LOCK = join(GITLET_DIR,"lock");
 
     /**
      * create .gitlet repository
@@ -36,18 +77,15 @@ public class Repository {
         }
         GITLET_DIR.mkdir();
         OBJECTS_DIR.mkdir();
-        setupCommitsRecord();
+        PACK_DIR.mkdir();
+        Config.setRepositoryFormat(Config.TYPED_OBJECT_FORMAT);
+        CommitLog.create();
         setupIndex();
         initMasterBranch();
         // if initialCommit ,there is no need to apply commit massege to invoke the defualt constructor
         Commit commit = new Commit();
         commit.saveCommit();
     }
-    public static void setupCommitsRecord() throws IOException {
-        COMMITS_RECORD.createNewFile();
-        CommitRecord commitRecord = new CommitRecord();
-        Utils.writeObject(COMMITS_RECORD,commitRecord);
-    }
     public static void commit(String message) throws IOException {
         commit(message,false,"");
     }
@@ -56,18 +94,32 @@ public class Repository {
             Utils.exitWithError("Please enter a commit message.");
         }
         Commit commit = new Commit(message,isMerge,otherParentCommitID);
-        clearIndex();
+        // the index is only cleared once the branch points at the commit,so a crash in between loses nothing staged
         commit.saveCommit();
+        clearIndex();
     }
     public static void clearIndex(){
-        Index index = Utils.readObject(INDEX,Index.class);
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
         index.clear();
-        Utils.writeObject(INDEX,index);
+        writeIndex(index);
     }
     private static void setupIndex() throws IOException {
         INDEX.createNewFile();
         Index index = new Index();
-        Utils.writeObject(INDEX,index);
+        writeIndex(index);
+    }
+    // write the index,and if it records files that are as new as the index file itself,forget them and write it again:
+    // such a file may have changed in the same clock tick without its stat data changing(racy git).
+    // the blobs it stages are made durable first,and it is replaced as a whole
+    public static void writeIndex(Index index){
+        try {
+            Journal.sync();
+            AtomicFile.write(INDEX,ObjectCodec.encode(index));
+            long indexTime = Files.getLastModifiedTime(INDEX.toPath()).to(TimeUnit.NANOSECONDS);
+            if(index.smudgeRacyStats(indexTime))AtomicFile.write(INDEX,ObjectCodec.encode(index));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
     private static void initMasterBranch() throws IOException {
         // mkdirs is able to create any nonexistent parent folder
@@ -75,21 +127,92 @@ public class Repository {
         MASTER.createNewFile();
         HEAD.createNewFile();
         // HEAD file contain the name of the active branch
-        Utils.writeContents(HEAD,"master");
+        writeRef(HEAD,"master");
     }
     // git add filePath
     public static void addFile(String filePath) throws IOException {
-        File fileToBeAdded = join(CWD,filePath);
-        if(!fileToBeAdded.exists())exitWithError("File does not exist.");
-        Blob blob = new Blob(fileToBeAdded,filePath);
-        blob.saveBlobToAdditionIndex();
-        blob.saveBlobToFile();
+        addFiles(Collections.singletonList(filePath));
+    }
+    // git add filePath...: a directory stands for every file under it.the files are hashed and stored
+    // on a bounded pool of threads,and then all of them are staged with a single index write
+    public static void addFiles(List<String> filePaths) throws IOException {
+        if(!GITLET_DIR.exists())exitWithError("Not in an initialized Gitlet directory.");
+        // filePath to its stat data,sorted so that files are staged and errors are reported in a fixed order
+        TreeMap<String,FileStat> files = new TreeMap<>();
+        for(String filePath : filePaths){
+            File fileToBeAdded = join(CWD,filePath);
+            if(!fileToBeAdded.exists())exitWithError("File does not exist.");
+            if(!fileToBeAdded.isDirectory()){
+                files.put(filePath,FileStat.read(fileToBeAdded));
+                continue;
+            }
+            String dirPath = CWD.toPath().toAbsolutePath().normalize()
+                    .relativize(fileToBeAdded.toPath().toAbsolutePath().normalize()).toString().replace(File.separatorChar,'/');
+            String prefix = dirPath.isEmpty() ? "" : dirPath + "/";
+            for(Map.Entry<String,FileStat> entry : WorktreeScanner.scan(fileToBeAdded).entrySet()){
+                files.put(prefix + entry.getKey(),entry.getValue());
+            }
+        }
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
+        TreeMap<String,Blob> blobs = new TreeMap<>();
+        List<String> filesToStore = new ArrayList<>();
+        for(Map.Entry<String,FileStat> entry : files.entrySet()){
+            String filePath = entry.getKey();
+            FileStat stat = entry.getValue();
+            // a file whose stat data has not changed is already stored under the blob id recorded for it
+            String blobID = index.getCachedBlobID(filePath,stat);
+            if(blobID != null)blobs.put(filePath,new Blob(blobID,filePath,stat.getSize()));
+            else filesToStore.add(filePath);
+        }
+        // the objects are stored before the index refers to them
+        List<Blob> storedBlobs = storeBlobs(filesToStore);
+        for(int i = 0;i < filesToStore.size();i++){
+            String filePath = filesToStore.get(i);
+            Blob blob = storedBlobs.get(i);
+            blobs.put(filePath,blob);
+            // the stat data is taken before hashing,so a change made while hashing is seen next time
+            FileStat stat = files.get(filePath);
+            index.recordStat(filePath,stat == null ? null : stat.withBlob(blob.getBlobID()));
+        }
+        Commit currentCommit = getCurrentCommit();
+        for(Blob blob : blobs.values()){
+            blob.saveBlobToAdditionIndex(index,currentCommit);
+        }
+        writeIndex(index);
+    }
+    // hash and store the files at filePaths on a pool of at most one thread per core,and return their blobs in
+    // the same order.if any file fails,the error of the first one in that order is reported
+    private static List<Blob> storeBlobs(List<String> filePaths) throws IOException {
+        List<Blob> blobs = new ArrayList<>();
+        if(filePaths.isEmpty())return blobs;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(filePaths.size(),Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Blob>> futures = new ArrayList<>();
+            for(String filePath : filePaths){
+                futures.add(pool.submit(() -> Blob.saveBlobToFile(join(CWD,filePath),filePath)));
+            }
+            for(Future<Blob> future : futures){
+                blobs.add(future.get());
+            }
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if(cause instanceof GitletException)exitWithError(cause.getMessage());
+            if(cause instanceof IOException)throw (IOException) cause;
+            throw new IllegalArgumentException(cause);
+        } catch (InterruptedException excp) {
+            throw error("Interrupted while adding files.");
+        } finally {
+            pool.shutdownNow();
+        }
+        return blobs;
     }
     // git rm filePath
     public static void rmFile(String filePath) throws IOException {
         File fileToBeRemoved = join(CWD,filePath);
         Blob blob = new Blob(fileToBeRemoved,filePath);
-        blob.saveBlobToRemovalIndex();
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
+        blob.saveBlobToRemovalIndex(index);
+        writeIndex(index);
     }
     // create file in the .git/object for commit,blob and tree object
     public static File createObjectFile(String objectID) throws IOException {
@@ -103,18 +226,235 @@ public class Repository {
         objectFile.createNewFile();
         return objectFile;
     }
+    // write an encoded object into .git/object,compressed if that pays off,unless the object is already stored.
+    // it is written into a temporary file,which the journal moves into place once it is on disk
+    public static void saveObject(String objectID,byte[] encoded) throws IOException {
+        if(hasObject(objectID))return;
+        File tmpFile = createTempObjectFile();
+        writeContents(tmpFile,Compression.compress(encoded));
+        Journal.add(objectID,tmpFile);
+    }
+    // a temporary file in .git/object for an object that is written before its id is known
+    public static File createTempObjectFile() throws IOException {
+        return File.createTempFile("tmp-",null,OBJECTS_DIR);
+    }
+    // hand a completely written temporary object file to the journal as objectID,
+    // or drop it if that object is already stored
+    public static void installObjectFile(File tmpFile,String objectID){
+        if(hasObject(objectID)){
+            tmpFile.delete();
+            return;
+        }
+        Journal.add(objectID,tmpFile);
+    }
     public static File getCurrentBranchFile(){
         String activeBranch = Utils.readContentsAsString(HEAD);
         File branchFile = Utils.join(heads,activeBranch);
         return branchFile;
     }
+    // the loose file of an object,which may not exist if the object is packed
+    public static File getLooseObjectFile(String objectID){
+        return join(OBJECTS_DIR,objectID.substring(0,2),objectID.substring(2));
+    }
+    // the file holding the stored bytes of a loose object,or of one this command wrote and the journal has not moved
+    // into place yet;null if there is none
+    private static File findLooseObjectFile(String objectID){
+        File objectFile = Journal.pendingFile(objectID);
+        if(objectFile == null)objectFile = getLooseObjectFile(objectID);
+        return objectFile.exists() ? objectFile : null;
+    }
+    private static List<PackFile> packs;
+    private static synchronized List<PackFile> getPacks(){
+        if(packs == null){
+            try {
+                packs = PackFile.listPacks(PACK_DIR);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return packs;
+    }
+    public static boolean hasObject(String objectID){
+        if(findLooseObjectFile(objectID) != null)return true;
+        for(PackFile pack : getPacks()){
+            if(pack.contains(objectID))return true;
+        }
+        return false;
+    }
+    // a stream over the encoded object,inflated if it is stored compressed;return null if there is no such object
+    public static InputStream openObject(String objectID) throws IOException {
+        InputStream stored = openStoredObject(objectID);
+        return stored == null ? null : Compression.decompressingStream(stored);
+    }
+    // a stream over the stored bytes of an object,looked up among loose objects first and then in the packs;
+    // return null if there is no such object
+    private static InputStream openStoredObject(String objectID) throws IOException {
+        File objectFile = findLooseObjectFile(objectID);
+        if(objectFile != null)return new FileInputStream(objectFile);
+        for(PackFile pack : getPacks()){
+            InputStream in = pack.open(objectID);
+            if(in != null)return in;
+        }
+        return null;
+    }
+    // the stored bytes of an object as a range of the file holding them,to be read in place;
+    // return null if the object is only stored as a delta,or not at all
+    public static StoredRegion getStoredRegion(String objectID) throws IOException {
+        File objectFile = findLooseObjectFile(objectID);
+        if(objectFile != null)return StoredRegion.ofFile(objectFile);
+        for(PackFile pack : getPacks()){
+            if(pack.contains(objectID))return pack.region(objectID);
+        }
+        return null;
+    }
+    // the number of stored bytes of an object,or -1 if there is no such object
+    private static long objectLength(String objectID) throws IOException {
+        File objectFile = findLooseObjectFile(objectID);
+        if(objectFile != null)return objectFile.length();
+        for(PackFile pack : getPacks()){
+            long length = pack.length(objectID);
+            if(length >= 0)return length;
+        }
+        return -1;
+    }
+    // objects that were read before are taken from the object cache,as objects never change
     public static <T extends Serializable> T getObject(String objectID, Class<T> expectedClass){
-        String firstTwoCharOfID = objectID.substring(0,2);
-        String remainId = objectID.substring(2);
-        File objectFile = join(OBJECTS_DIR,firstTwoCharOfID,remainId);
-        if(expectedClass == Commit.class && !objectFile.exists())Utils.exitWithError("No commit with that id exists.");
-        T object = Utils.readObject(objectFile,expectedClass);
-        return object;
+        Serializable cached = ObjectCache.get(objectID);
+        if(expectedClass.isInstance(cached))return expectedClass.cast(cached);
+        try (InputStream in = openObject(objectID)) {
+            if(in == null){
+                if(expectedClass == Commit.class)Utils.exitWithError("No commit with that id exists.");
+                throw error("No object with id %s exists.",objectID);
+            }
+            // blobs only read their header here,their content is streamed when it is needed
+            T object = ObjectCodec.decode(in,objectID,expectedClass);
+            ObjectCache.put(objectID,object);
+            return object;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+    // git repack: fold all loose objects and every existing pack into a single new pack
+    public static void repack() throws IOException {
+        if(!GITLET_DIR.exists())exitWithError("Not in an initialized Gitlet directory.");
+        PACK_DIR.mkdirs();
+        // the loose objects are about to be packed and deleted,the journal must not bring them back.
+        // a temporary object file that is left now was written by a command that ended before it was synced
+        Journal.checkpoint();
+        for(File tmpFile : OBJECTS_DIR.listFiles()){
+            if(tmpFile.isFile() && tmpFile.getName().startsWith("tmp-"))tmpFile.delete();
+        }
+        List<File> looseFiles = new ArrayList<>();
+        TreeSet<String> objectIDs = new TreeSet<>();
+        for(String dirName : OBJECTS_DIR.list()){
+            File objectDir = join(OBJECTS_DIR,dirName);
+            if(dirName.length() != 2 || !objectDir.isDirectory())continue;
+            for(String remainId : plainFilenamesIn(objectDir)){
+                objectIDs.add(dirName + remainId);
+                looseFiles.add(join(objectDir,remainId));
+            }
+        }
+        List<PackFile> oldPacks = getPacks();
+        if(looseFiles.isEmpty() && oldPacks.size() <= 1)return;
+        // the old packs are deleted once they are folded into the new one,so one that was corrupted is refused first
+        for(PackFile pack : oldPacks)pack.verify();
+        for(PackFile pack : oldPacks){
+            for(int i = 0;i < pack.size();i++){
+                objectIDs.add(pack.getId(i));
+            }
+        }
+        // objects still in the Java serialization format are converted to loose objects
+        // in the current format first,so that they go into the pack converted
+        for(String objectID : objectIDs){
+            byte[] legacyContent = readLegacyObject(objectID);
+            if(legacyContent == null)continue;
+            File objectFile = getLooseObjectFile(objectID);
+            createObjectFile(objectID);
+            AtomicFile.write(objectFile,Compression.compress(ObjectCodec.migrate(legacyContent)));
+            if(!looseFiles.contains(objectFile))looseFiles.add(objectFile);
+        }
+        // every new version of a file is a candidate for a delta against the version before it;
+        // those candidates go into the pack after everything else,in history order,so each base comes first
+        LinkedHashMap<String,String> deltaBases = getDeltaBases(objectIDs);
+        List<String> packOrder = new ArrayList<>();
+        for(String objectID : objectIDs){
+            if(!deltaBases.containsKey(objectID))packOrder.add(objectID);
+        }
+        packOrder.addAll(deltaBases.keySet());
+        PackFile newPack = PackFile.write(PACK_DIR,packOrder,new PackFile.Source() {
+            @Override
+            public long length(String objectID) throws IOException {
+                return objectLength(objectID);
+            }
+            @Override
+            public InputStream open(String objectID) throws IOException {
+                // compressed objects go into the pack as they are
+                return openStoredObject(objectID);
+            }
+        },deltaBases);
+        // only now that every object is reachable through the new pack is it safe to drop the old copies
+        for(File looseFile : looseFiles){
+            looseFile.delete();
+            looseFile.getParentFile().delete();
+        }
+        for(PackFile pack : oldPacks){
+            if(pack.getIdxFile().equals(newPack.getIdxFile()))continue;
+            pack.close();
+            pack.getIdxFile().delete();
+            pack.getPackFile().delete();
+        }
+        packs = null;
+        CommitGraph.write();
+    }
+    // map every blob that is a later version of a file to the version of that file in the first parent of the commit
+    // that brings it in.A blob only gets a base the first time it shows up,so that no two blobs are each other's base
+    private static LinkedHashMap<String,String> getDeltaBases(Set<String> objectIDs){
+        LinkedHashMap<String,String> deltaBases = new LinkedHashMap<>();
+        HashSet<String> seenBlobs = new HashSet<>();
+        List<String> commitIDs = new ArrayList<>();
+        CommitLog.forEach(commit -> commitIDs.add(commit.getCommitID()));
+        for(String commitID : commitIDs){
+            Commit commit = getObject(commitID,Commit.class);
+            Commit parentCommit = commit.isInitialCommit() ? null : getObject(commit.getParentCommitID().get(0),Commit.class);
+            diffCommits(parentCommit,commit,(filePath,previousBlobID,blobID) -> {
+                if(blobID == null || !seenBlobs.add(blobID) || previousBlobID == null)return;
+                if(objectIDs.contains(blobID) && objectIDs.contains(previousBlobID))deltaBases.put(blobID,previousBlobID);
+            });
+        }
+        return deltaBases;
+    }
+    // call visitor on every file that differs between the commits from(null for none) and to,in path order.
+    // the trees of two commits are compared without reading the directories they share;the maps of files of
+    // commits made before there were trees are compared file by file
+    private static void diffCommits(Commit from,Commit to,Tree.DiffVisitor visitor){
+        if((from == null || from.hasTree()) && to.hasTree()){
+            try {
+                Tree.diff(from == null ? null : from.getTreeID(),to.getTreeID(),visitor);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        Map<String,String> fromFiles = from == null ? new HashMap<String,String>() : from.getFilePathToBlobId();
+        Map<String,String> toFiles = to.getFilePathToBlobId();
+        TreeSet<String> filePaths = new TreeSet<>(fromFiles.keySet());
+        filePaths.addAll(toFiles.keySet());
+        for(String filePath : filePaths){
+            String fromBlobID = fromFiles.get(filePath);
+            String toBlobID = toFiles.get(filePath);
+            if(!Objects.equals(fromBlobID,toBlobID))visitor.visit(filePath,fromBlobID,toBlobID);
+        }
+    }
+    // the stored bytes of an object if it is still in the Java serialization format,or null
+    private static byte[] readLegacyObject(String objectID) throws IOException {
+        try (InputStream in = openObject(objectID)) {
+            int firstByte = in.read();
+            if(firstByte < 0 || !ObjectCodec.isLegacy(new byte[]{(byte) firstByte}))return null;
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            content.write(firstByte);
+            in.transferTo(content);
+            return content.toByteArray();
+        }
     }
     public static Commit getCurrentCommit(){
         File branchFile = getCurrentBranchFile();
@@ -132,31 +472,127 @@ public class Repository {
         currentCommit.printCommit();
     }
     public static void printGlobalLog(){
-        CommitRecord commitRecord = Utils.readObject(COMMITS_RECORD,CommitRecord.class);
-        commitRecord.printCommitRecord();
+        CommitLog.forEach(Commit::printCommit);
     }
     public static void find(String message){
-        CommitRecord commitRecord = Utils.readObject(COMMITS_RECORD,CommitRecord.class);
-        commitRecord.findSameMessageCommitID(message);
+        printFoundCommits(MessageIndex.findExact(message));
+    }
+    // git find --substring text: the commits whose message contains text
+    public static void findSubstring(String text){
+        printFoundCommits(MessageIndex.findSubstring(text));
+    }
+    private static void printFoundCommits(List<Commit> foundCommits){
+        if(foundCommits.isEmpty())System.out.println("Found no commit with that message.");
+        for(Commit commit : foundCommits){
+            System.out.println(commit.getCommitID());
+        }
     }
     public static void printStatus(){
         if(!GITLET_DIR.exists())exitWithError("Not in an initialized Gitlet directory.");
         System.out.println("=== Branches ===");
         printBranches();
         System.out.println();
-        Index index = Utils.readObject(Repository.INDEX,Index.class);
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
         System.out.println("=== Staged Files ===");
         index.printStagedFile();
         System.out.println();
         System.out.println("=== Removed Files ===");
         index.printRemovedFile();
         System.out.println();
-        // extra credit
-        System.out.println("=== Modifications Not Staged For Commit ===");
-        System.out.println();
-        System.out.println("=== Untracked Files ===");
+        printRenamedFiles(index);
+        printWorkingDirStatus(index);
+    }
+    // the staged additions that are renames of staged removals,as old -> new.the section is only there when
+    // there are renames,so the status of a repository without them reads as it always has
+    private static void printRenamedFiles(Index index){
+        if(index.getRemovalIndex().isEmpty())return;
+        Commit currentCommit = getCurrentCommit();
+        HashMap<String,String> newFiles = new HashMap<>();
+        for(Map.Entry<String,String> entry : index.getAdditionalIndex().entrySet()){
+            if(currentCommit.getBlobIdOfFilePath(entry.getKey()) == null)newFiles.put(entry.getKey(),entry.getValue());
+        }
+        Map<String,String> renames = RenameDetector.detect(index.getRemovalIndex(),newFiles);
+        if(renames.isEmpty())return;
+        System.out.println("=== Renamed Files ===");
+        for(Map.Entry<String,String> entry : renames.entrySet()){
+            System.out.println(entry.getValue() + " -> " + entry.getKey());
+        }
         System.out.println();
     }
+    // compare every file in the working directory with the version that is staged or tracked by the current commit.
+    // only the files whose stat data is not in the stat cache are hashed,in parallel,and their hashes are cached
+    private static void printWorkingDirStatus(Index index){
+        HashMap<String,String> trackedFiles = getCurrentCommit().getFilePathToBlobId();
+        HashMap<String,String> stagedFiles = index.getAdditionalIndex();
+        HashMap<String,String> removedFiles = index.getRemovalIndex();
+        SortedMap<String,FileStat> workingFiles = WorktreeScanner.scan(CWD);
+        // filePath to "modified" or "deleted"
+        TreeMap<String,String> modifications = new TreeMap<>();
+        List<String> untrackedFiles = new ArrayList<>();
+        List<String> filesToHash = new ArrayList<>();
+        for(Map.Entry<String,FileStat> entry : workingFiles.entrySet()){
+            String filePath = entry.getKey();
+            String expectedBlobID = getExpectedBlobID(filePath,trackedFiles,stagedFiles,removedFiles);
+            if(expectedBlobID == null){
+                untrackedFiles.add(filePath);
+                continue;
+            }
+            String cachedBlobID = index.getCachedBlobID(filePath,entry.getValue());
+            if(cachedBlobID == null)filesToHash.add(filePath);
+            else if(!cachedBlobID.equals(expectedBlobID))modifications.put(filePath,"modified");
+        }
+        Map<String,String> hashedBlobIDs = filesToHash.parallelStream().collect(Collectors.toConcurrentMap(
+                filePath -> filePath,filePath -> {
+                    try {
+                        return new Blob(join(CWD,filePath),filePath).getBlobID();
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                }));
+        for(Map.Entry<String,String> entry : hashedBlobIDs.entrySet()){
+            String filePath = entry.getKey();
+            if(!entry.getValue().equals(getExpectedBlobID(filePath,trackedFiles,stagedFiles,removedFiles))){
+                modifications.put(filePath,"modified");
+            }
+        }
+        for(String filePath : stagedFiles.keySet()){
+            if(!workingFiles.containsKey(filePath))modifications.put(filePath,"deleted");
+        }
+        for(String filePath : trackedFiles.keySet()){
+            if(!removedFiles.containsKey(filePath) && !workingFiles.containsKey(filePath))modifications.put(filePath,"deleted");
+        }
+        // the sections can be long,so they are printed at once rather than line by line
+        StringBuilder output = new StringBuilder("=== Modifications Not Staged For Commit ===\n");
+        for(Map.Entry<String,String> entry : modifications.entrySet()){
+            output.append(entry.getKey()).append(" (").append(entry.getValue()).append(")\n");
+        }
+        output.append("\n=== Untracked Files ===\n");
+        for(String filePath : untrackedFiles){
+            output.append(filePath).append('\n');
+        }
+        System.out.println(output);
+        // the next status does not have to hash these files again.status only holds the repository lock shared,so the
+        // stat data is only cached when no other command is reading,into the index as it is by then
+        if(hashedBlobIDs.isEmpty())return;
+        try {
+            if(!RepositoryLock.tryUpgrade())return;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Index currentIndex = ObjectCodec.readObject(INDEX,Index.class);
+        for(Map.Entry<String,String> entry : hashedBlobIDs.entrySet()){
+            currentIndex.recordStat(entry.getKey(),workingFiles.get(entry.getKey()).withBlob(entry.getValue()));
+        }
+        writeIndex(currentIndex);
+    }
+    // the blob id that the file at filePath should hold if it is unchanged,or null if it is untracked
+    private static String getExpectedBlobID(String filePath,HashMap<String,String> trackedFiles,
+                                            HashMap<String,String> stagedFiles,HashMap<String,String> removedFiles){
+        if(stagedFiles.containsKey(filePath))return stagedFiles.get(filePath);
+        // a file that is staged for removal but still there is untracked
+        if(removedFiles.containsKey(filePath))return null;
+        return trackedFiles.get(filePath);
+    }
     public static void printBranches(){
         String currentBranchName = Utils.readContentsAsString(HEAD);
         System.out.println("*"+currentBranchName);
@@ -172,18 +608,80 @@ public class Repository {
         checkoutTheFileFromCommitOf(currentCommitID,filePath);
     }
     public static void checkoutTheFileFromCommitOf(String commitID,String filePath){
-        Commit commit = getObject(commitID,Commit.class);
+        Commit commit = getObject(expandCommitID(commitID),Commit.class);
         if(!commit.isThereSameFileNameTo(filePath))
             Utils.exitWithError("File does not exist in that commit.");
         String blobID = commit.getFilePathToBlobId().get(filePath);
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
+        checkoutBlob(index,blobID,filePath);
+        writeIndex(index);
+    }
+    // write a blob into the working directory unless the stat cache shows the file already holds it,
+    // and record the stat data of the file
+    private static void checkoutBlob(Index index,String blobID,String filePath){
+        File file = join(CWD,filePath);
+        if(blobID.equals(index.getCachedBlobID(filePath,FileStat.read(file))))return;
         writeBlobIntoWorkingDir(blobID,filePath);
+        FileStat stat = FileStat.read(file);
+        index.recordStat(filePath,stat == null ? null : stat.withBlob(blobID));
+    }
+    // write the blobs of writes(filePath to blob id) into the working directory on a pool of checkout.workers threads,
+    // so that reading and inflating some blobs overlaps with writing others,and record the stat data of the files.
+    // a file is only handed to a worker while the blobs in flight hold less than CHECKOUT_IN_FLIGHT_KB,and if any
+    // file fails,the error of the first one in path order is reported
+    private static void checkoutBlobs(Index index,SortedMap<String,String> writes){
+        int workers = Config.getInt(Config.CHECKOUT_WORKERS);
+        if(workers == 0)workers = Runtime.getRuntime().availableProcessors();
+        if(workers == 1 || writes.size() <= 1){
+            for(Map.Entry<String,String> entry : writes.entrySet())checkoutBlob(index,entry.getValue(),entry.getKey());
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers,writes.size()));
+        Semaphore inFlight = new Semaphore(CHECKOUT_IN_FLIGHT_KB);
+        LinkedHashMap<String,Future<FileStat>> futures = new LinkedHashMap<>();
+        try {
+            for(Map.Entry<String,String> entry : writes.entrySet()){
+                String filePath = entry.getKey();
+                String blobID = entry.getValue();
+                // the stat cache is only read here,as the index is not safe to share with the workers
+                if(blobID.equals(index.getCachedBlobID(filePath,FileStat.read(join(CWD,filePath)))))continue;
+                Blob blob = getObject(blobID,Blob.class);
+                int permits = (int) Math.min(CHECKOUT_IN_FLIGHT_KB,blob.getSize() / 1024 + 1);
+                inFlight.acquire(permits);
+                futures.put(filePath,pool.submit(() -> {
+                    try {
+                        File file = join(CWD,filePath);
+                        file.getParentFile().mkdirs();
+                        blob.writeContentTo(file);
+                        return FileStat.read(file);
+                    } finally {
+                        inFlight.release(permits);
+                    }
+                }));
+            }
+            for(Map.Entry<String,Future<FileStat>> entry : futures.entrySet()){
+                FileStat stat = entry.getValue().get();
+                index.recordStat(entry.getKey(),stat == null ? null : stat.withBlob(writes.get(entry.getKey())));
+            }
+        } catch (ExecutionException excp) {
+            Throwable cause = excp.getCause();
+            if(cause instanceof GitletException)exitWithError(cause.getMessage());
+            throw new IllegalArgumentException(cause);
+        } catch (GitletException excp) {
+            // a blob that cannot be read is reported the same way as one that cannot be written
+            exitWithError(excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("Interrupted while checking out files.");
+        } finally {
+            pool.shutdownNow();
+        }
     }
     public static void writeBlobIntoWorkingDir(String blobID,String filePath){
         Blob blob = getObject(blobID,Blob.class);
-        byte[] blobContent = blob.getFileContent();
         // if filePath already exist,overwrite it;or create a new file and the write into it
         File newFile = join(CWD,filePath);
-        Utils.writeContents(newFile,blobContent);
+        newFile.getParentFile().mkdirs();
+        blob.writeContentTo(newFile);
     }
     public static void checkoutFromBranch(String branchName){
         File branchFile = join(heads,branchName);
@@ -192,56 +690,101 @@ public class Repository {
         if(currentBranchName.equals(branchName))Utils.exitWithError("No need to checkout the current branch.");
         String checkoutCommitID = Utils.readContentsAsString(branchFile);
         restoreWorkingDirToCommit(checkoutCommitID);
-        updateHEAD(branchName);
+        updateHEAD(currentBranchName,branchName);
     }
-    public static void resetToCommit(String checkoutCommitID){
+    public static void resetToCommit(String commitID){
+        String checkoutCommitID = expandCommitID(commitID);
+        String currentCommitID = readContentsAsString(getCurrentBranchFile());
         restoreWorkingDirToCommit(checkoutCommitID);
-        updateCurrentBranchFileTo(checkoutCommitID);
+        updateCurrentBranchFileTo(currentCommitID,checkoutCommitID);
     }
+    // bring the working directory from the current commit to the checkout commit.only the files whose blob differs
+    // between the two commits are written or deleted,found by comparing their trees,and every check is made before
+    // any file is touched,so a checkout that fails leaves the working directory as it was
     private static void restoreWorkingDirToCommit(String checkoutCommitID){
         Commit checkoutCommit = getObject(checkoutCommitID,Commit.class);
         Commit currentCommit = getCurrentCommit();
-        HashMap<String,String> checkoutCommitBlobs = checkoutCommit.getFilePathToBlobId();
-        HashMap<String,String> currentCommitBlobs = currentCommit.getFilePathToBlobId();
-        // first we need to traverse the blobs in the current branch commit to find fileName not
-        // exist in the checkoutCommit and delete from working directory
-        for(Map.Entry<String,String> entry : currentCommitBlobs.entrySet()){
-            String filePath = entry.getKey();
-            if(!checkoutCommit.isThereSameFileNameTo(filePath)){
-                Utils.restrictedDelete(filePath);
-            }
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
+        // filePath to the blob it gets,null for a file to delete
+        TreeMap<String,String> changes = new TreeMap<>();
+        List<String> untrackedFiles = new ArrayList<>();
+        diffCommits(currentCommit,checkoutCommit,(filePath,currentBlobID,checkoutBlobID) -> {
+            changes.put(filePath,checkoutBlobID);
+            if(currentBlobID == null && join(CWD,filePath).exists())untrackedFiles.add(filePath);
+        });
+        // a file that is not in the commit of the current branch but is in the working directory would be overwritten
+        // by the one in the checkout commit,so in order to avoid information loss,gitlet reports an error
+        if(!untrackedFiles.isEmpty()){
+            exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
         }
-        // then traverse the blobs in the checkout commit,for the files that are not in the commit of the current branch,
-        // but are in the working directory,output an error message(as the name of the file in the working directory is same
-        // to the one in the checkout commit,it gonna be overwritten by the same name file in the checkout commit.
-        // Therefore,in order to avoid information loss,gitlet will report an error)
-        for(Map.Entry<String,String> entry : checkoutCommitBlobs.entrySet()){
-            String filePath = entry.getKey();
-            String blobID = entry.getValue();
-            File file = Utils.join(CWD,filePath);
-            if(!currentCommit.isThereSameFileNameTo(filePath) && file.exists()){
-                Utils.exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
-            }
-            writeBlobIntoWorkingDir(blobID,filePath);
+        // the staging area is emptied,so the staged files that are the same in both commits go back to that version
+        TreeSet<String> stagedPaths = new TreeSet<>(index.getAdditionalIndex().keySet());
+        stagedPaths.addAll(index.getRemovalIndex().keySet());
+        for(String filePath : stagedPaths){
+            if(changes.containsKey(filePath))continue;
+            String blobID = checkoutCommit.getBlobIdOfFilePath(filePath);
+            if(blobID != null)changes.put(filePath,blobID);
         }
-        clearIndex();
+        // deletions go first,so that a file can take the place of a directory that is emptied
+        for(Map.Entry<String,String> change : changes.entrySet()){
+            if(change.getValue() != null)continue;
+            deleteWorkingFile(change.getKey());
+            index.forgetStat(change.getKey());
+        }
+        TreeMap<String,String> writes = new TreeMap<>();
+        for(Map.Entry<String,String> change : changes.entrySet()){
+            if(change.getValue() != null)writes.put(change.getKey(),change.getValue());
+        }
+        checkoutBlobs(index,writes);
+        index.clear();
+        writeIndex(index);
+    }
+    // delete the working file at filePath,and then every directory that this leaves empty up to the working directory
+    public static void deleteWorkingFile(String filePath){
+        File file = join(CWD,filePath);
+        if(!file.isFile())return;
+        file.delete();
+        // delete only removes a directory that is empty
+        File dir = file.getParentFile();
+        while(!dir.equals(CWD) && dir.delete())dir = dir.getParentFile();
     }
-    public static void updateHEAD(String branchName){
-        Utils.writeContents(HEAD,branchName);
+    // the update* methods take the value the ref had when the command read it,see compareAndSwapRef
+    public static void updateHEAD(String oldBranchName,String branchName){
+        compareAndSwapRef(HEAD,oldBranchName,branchName);
     }
-    public static void updateCurrentBranchFileTo(String commitID){
+    public static void updateCurrentBranchFileTo(String oldCommitID,String commitID){
         File currentBranchFile = getCurrentBranchFile();
-        Utils.writeContents(currentBranchFile,commitID);
+        compareAndSwapRef(currentBranchFile,oldCommitID,commitID);
     }
-    public static void updateBranchFileTo(String branchName,String commitID){
+    public static void updateBranchFileTo(String branchName,String oldCommitID,String commitID){
         File branchFile = join(heads,branchName);
-        Utils.writeContents(branchFile,commitID);
+        compareAndSwapRef(branchFile,oldCommitID,commitID);
     }
     public static void createBranch(String branchName){
         File newBranchFile = Utils.join(heads,branchName);
         if(newBranchFile.exists())Utils.exitWithError("A branch with that name already exists.");
         String commitID = getCurrentCommit().getCommitID();
-        Utils.writeContents(newBranchFile,commitID);
+        compareAndSwapRef(newBranchFile,null,commitID);
+    }
+    // point a ref at content only if it still holds expected(null for a ref that must not exist yet),the value the
+    // command read and based its work on.commands that change refs hold the repository lock alone,so this only
+    // fails when a process that does not take the lock moved the ref in the meantime,and then nothing is lost
+    public static void compareAndSwapRef(File refFile,String expected,String content){
+        String actual = refFile.exists() ? readContentsAsString(refFile) : null;
+        if(!Objects.equals(actual,expected))exitWithError("Cannot update " + refFile.getName() + ": it was changed by another process.");
+        writeRef(refFile,content);
+    }
+    // point a ref(HEAD or a branch file) at content.every object written so far is made durable first,then the ref
+    // is replaced as a whole and its directory forced,so after a crash it holds the old content or the new one
+    // and never points at an object that was lost
+    public static void writeRef(File refFile,String content){
+        try {
+            Journal.sync();
+            AtomicFile.write(refFile,content.getBytes(StandardCharsets.UTF_8));
+            AtomicFile.syncDirectory(refFile.getParentFile());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
     private static File getBranchFile(String branchName){
         File branchFile = join(heads,branchName);
@@ -258,165 +801,369 @@ public class Repository {
         String commitID = readContentsAsString(branchFile);
         return getObject(commitID,Commit.class);
     }
-    private static Commit BFS(Commit commit,LinkedList<Commit>commitsQueue,HashSet<String>curCommitVisited,boolean isCommit2,HashSet<String>prevCommitVisited){
-        commitsQueue.addLast(commit);
-        curCommitVisited.add(commit.getCommitID());
-        while (!commitsQueue.isEmpty()){
-            Commit curCommit = commitsQueue.poll();
-            if(isCommit2 && prevCommitVisited.contains(curCommit.getCommitID()))return curCommit;
-            if(curCommit.isInitialCommit())continue;
-            for(int i = 0;i <= 1;i++){
-                String parentCommitID = curCommit.getParentCommitID().get(i);
-                if(curCommitVisited.contains(parentCommitID))continue;
-                Commit parentCommit = getObject(parentCommitID,Commit.class);
-                commitsQueue.addLast(parentCommit);
-                curCommitVisited.add(parentCommitID);
+    // the commit id that name stands for:a branch,or the (abbreviated) id of a commit
+    public static String resolveCommitID(String name){
+        File branchFile = join(heads,name);
+        if(branchFile.isFile())return readContentsAsString(branchFile);
+        return expandCommitID(name);
+    }
+    // the full id of the only commit whose id starts with commitID,which has at least MIN_ABBREV hex digits.
+    // the ids are binary searched in the commit graph,so no object directory is listed
+    public static String expandCommitID(String commitID){
+        String prefix = commitID.toLowerCase(Locale.ROOT);
+        if(prefix.length() < MIN_ABBREV || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")){
+            exitWithError("No commit with that id exists.");
+        }
+        CommitGraph graph = CommitGraph.load();
+        List<Integer> positions = graph.findPrefix(prefix);
+        if(positions.isEmpty())exitWithError("No commit with that id exists.");
+        if(positions.size() > 1){
+            List<String> candidates = new ArrayList<>();
+            for(int position : positions)candidates.add(graph.getId(position));
+            exitWithError("Commit id " + commitID + " is ambiguous; it could be " + String.join(", ",candidates) + ".");
+        }
+        return graph.getId(positions.get(0));
+    }
+    // gitlet migrate:move a repository whose blob ids hash the path of each file along with its content,or the content
+    // without a header of its type,over to ids of a typed header and the content alone(Config.TYPED_OBJECT_FORMAT).every commit is stored again in the order they were made,with the blobs it changes
+    // stored under their new ids and only the trees on their paths written anew;then the log,the index and the
+    // branches are switched over,and the repository format is raised last.the old objects are left where they
+    // are.a migration that was cut short is finished by running it again,as what it already moved keeps its ids
+    public static void migrate() throws IOException {
+        if(!GITLET_DIR.exists())exitWithError("Not in an initialized Gitlet directory.");
+        if(Config.getRepositoryFormat() >= Config.TYPED_OBJECT_FORMAT)exitWithError("The repository is already migrated.");
+        // old id to new id of every blob and chunk moved so far,and of every commit
+        HashMap<String,String> newBlobIDs = new HashMap<>();
+        HashMap<String,String> newChunkIDs = new HashMap<>();
+        HashMap<String,String> newCommitIDs = new HashMap<>();
+        HashMap<String,String> newTreeIDs = new HashMap<>();
+        List<String> commitIDs = new ArrayList<>();
+        CommitLog.forEach(commit -> commitIDs.add(commit.getCommitID()));
+        List<Commit> migratedCommits = new ArrayList<>();
+        for(String commitID : commitIDs){
+            Commit commit = getObject(commitID,Commit.class);
+            Commit parentCommit = commit.isInitialCommit() ? null : getObject(commit.getParentCommitID().get(0),Commit.class);
+            HashMap<String,String> additions = new HashMap<>();
+            TreeSet<String> removals = new TreeSet<>();
+            diffCommits(parentCommit,commit,(filePath,oldBlobID,blobID) -> {
+                if(blobID == null)removals.add(filePath);
+                else additions.put(filePath,migrateBlob(blobID,newBlobIDs,newChunkIDs));
+            });
+            String treeID = Tree.update(parentCommit == null ? null : newTreeIDs.get(parentCommit.getCommitID()),additions,removals);
+            List<String> parents = new LinkedList<String>();
+            for(String parent : commit.getParentCommitID())parents.add(newCommitIDs.get(parent));
+            Commit migrated = commit.migrated(parents,treeID);
+            saveObject(migrated.getCommitID(),ObjectCodec.encode(migrated));
+            newCommitIDs.put(commitID,migrated.getCommitID());
+            newTreeIDs.put(commitID,treeID);
+            migratedCommits.add(migrated);
+        }
+        // the new log must not name a commit that a crash would lose
+        Journal.sync();
+        CommitLog.replace(migratedCommits);
+        MESSAGE_INDEX.delete();
+        MessageIndex.update();
+        CommitGraph.write();
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
+        for(String blobID : index.getAdditionalIndex().values())migrateBlob(blobID,newBlobIDs,newChunkIDs);
+        for(String blobID : index.getRemovalIndex().values())migrateBlob(blobID,newBlobIDs,newChunkIDs);
+        index.migrateBlobIDs(newBlobIDs);
+        writeIndex(index);
+        // the new log and commit graph have to survive a crash before any branch moves over to them
+        AtomicFile.syncDirectory(GITLET_DIR);
+        for(File branchFile : heads.listFiles()){
+            String oldCommitID = readContentsAsString(branchFile);
+            String newCommitID = newCommitIDs.get(oldCommitID);
+            if(newCommitID != null)compareAndSwapRef(branchFile,oldCommitID,newCommitID);
+        }
+        Config.setRepositoryFormat(Config.TYPED_OBJECT_FORMAT);
+        System.out.println("Migrated " + migratedCommits.size() + " commits and " + new HashSet<>(newBlobIDs.values()).size() + " blobs.");
+    }
+    // the id that the blob blobID has after migrate,storing it under that id the first time
+    private static String migrateBlob(String blobID,HashMap<String,String> newBlobIDs,HashMap<String,String> newChunkIDs){
+        String newBlobID = newBlobIDs.get(blobID);
+        if(newBlobID != null)return newBlobID;
+        try {
+            newBlobID = Blob.migrate(blobID,newChunkIDs);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        newBlobIDs.put(blobID,newBlobID);
+        return newBlobID;
+    }
+    // git merge-base [--all] commit1 commit2:print the best common ancestor of the two commits,or all of them
+    public static void printMergeBases(String name1,String name2,boolean all){
+        CommitGraph graph = CommitGraph.load();
+        int position1 = graph.find(resolveCommitID(name1));
+        int position2 = graph.find(resolveCommitID(name2));
+        List<Integer> bases = graph.mergeBases(Collections.singletonList(position1),position2);
+        for(int base : all ? bases : bases.subList(0,Math.min(1,bases.size()))){
+            System.out.println(graph.getId(base));
+        }
+    }
+    // git diff [--stat] [commit [commit]]:with no commit,the working files against their staged or tracked
+    // versions;with one,the commit against the working files;with two,the first commit against the second.
+    // only the files the index tracks are compared with the working directory,and a working file whose stat
+    // data is in the stat cache with the blob it is compared with is known to be unchanged without reading it
+    public static void printDiff(List<String> names,LineDiff.Algorithm algorithm,boolean stat){
+        if(!GITLET_DIR.exists())exitWithError("Not in an initialized Gitlet directory.");
+        // filePath to {old blob id,new blob id},null standing for no file and WORKING_FILE for the working file
+        TreeMap<String,String[]> changes = new TreeMap<>();
+        if(names.size() == 2){
+            Commit from = getObject(resolveCommitID(names.get(0)),Commit.class);
+            Commit to = getObject(resolveCommitID(names.get(1)),Commit.class);
+            diffCommits(from,to,(filePath,oldBlobID,newBlobID) -> changes.put(filePath,new String[]{oldBlobID,newBlobID}));
+        }else{
+            Index index = ObjectCodec.readObject(INDEX,Index.class);
+            HashMap<String,String> indexFiles = getCurrentCommit().getFilePathToBlobId();
+            indexFiles.keySet().removeAll(index.getRemovalIndex().keySet());
+            indexFiles.putAll(index.getAdditionalIndex());
+            Map<String,String> oldFiles = names.isEmpty() ? indexFiles
+                    : getObject(resolveCommitID(names.get(0)),Commit.class).getFilePathToBlobId();
+            TreeSet<String> filePaths = new TreeSet<>(oldFiles.keySet());
+            filePaths.addAll(indexFiles.keySet());
+            for(String filePath : filePaths){
+                String oldBlobID = oldFiles.get(filePath);
+                File file = join(CWD,filePath);
+                String newBlobID = indexFiles.containsKey(filePath) && file.isFile() ? WORKING_FILE : null;
+                if(oldBlobID == null && newBlobID == null)continue;
+                if(newBlobID != null && oldBlobID != null && oldBlobID.equals(index.getCachedBlobID(filePath,FileStat.read(file))))continue;
+                changes.put(filePath,new String[]{oldBlobID,newBlobID});
             }
         }
-        return null;
+        StringBuilder output = new StringBuilder();
+        List<String> statPaths = new ArrayList<>();
+        List<int[]> statCounts = new ArrayList<>();
+        for(Map.Entry<String,String[]> change : changes.entrySet()){
+            String filePath = change.getKey();
+            String oldBlobID = change.getValue()[0];
+            String newBlobID = change.getValue()[1];
+            byte[] oldContent = diffContent(filePath,oldBlobID);
+            byte[] newContent = diffContent(filePath,newBlobID);
+            // a working file that is not in the stat cache may still be unchanged
+            if(oldBlobID != null && newBlobID != null && Arrays.equals(oldContent,newContent))continue;
+            boolean binary = LineDiff.isBinary(oldContent) || LineDiff.isBinary(newContent);
+            List<String> oldLines = binary ? null : LineDiff.splitLines(oldContent);
+            List<String> newLines = binary ? null : LineDiff.splitLines(newContent);
+            List<LineDiff.Edit> edits = binary ? null : LineDiff.diff(oldLines,newLines,algorithm);
+            if(stat){
+                statPaths.add(filePath);
+                statCounts.add(binary ? null : LineDiff.countLines(edits));
+                continue;
+            }
+            String oldName = oldBlobID == null ? "/dev/null" : "a/" + filePath;
+            String newName = newBlobID == null ? "/dev/null" : "b/" + filePath;
+            output.append("diff --git a/").append(filePath).append(" b/").append(filePath).append('\n');
+            if(oldBlobID == null)output.append("new file\n");
+            if(newBlobID == null)output.append("deleted file\n");
+            if(binary){
+                output.append("Binary files ").append(oldName).append(" and ").append(newName).append(" differ\n");
+                continue;
+            }
+            if(edits.isEmpty())continue;
+            output.append("--- ").append(oldName).append('\n');
+            output.append("+++ ").append(newName).append('\n');
+            LineDiff.writeUnified(output,oldLines,newLines,edits);
+        }
+        if(stat && !statPaths.isEmpty())LineDiff.writeStat(output,statPaths,statCounts);
+        System.out.print(output);
     }
-    private static Commit getSplitPoint(Commit commit1,Commit commit2){
-        HashSet<String>commit1Visited = new HashSet<String>();
-        LinkedList<Commit>commitsQueue = new LinkedList<Commit>();
-        BFS(commit1,commitsQueue,commit1Visited,false,null);
-        commitsQueue = new LinkedList<Commit>();
-        HashSet<String>commit2Visited = new HashSet<String>();
-        return BFS(commit2,commitsQueue,commit2Visited,true,commit1Visited);
-    }
-    // use blobID as the totalMap's key,as the same filePath may have different BlobID in these three Map
-    private static void addToTotalBlobIDToFilePath(HashMap<String,String> totalBlobIDToFilePath,HashMap<String,String> filePathToBlobs){
-        for(Map.Entry<String,String> entry : filePathToBlobs.entrySet()){
-            String filePath = entry.getKey();
-            String blobID = entry.getValue();
-            totalBlobIDToFilePath.put(blobID,filePath);
+    // the content of the version of filePath that blobID names for diff:nothing for no file,and the file in the
+    // working directory for WORKING_FILE
+    private static byte[] diffContent(String filePath,String blobID){
+        if(blobID == null)return new byte[0];
+        if(blobID.equals(WORKING_FILE))return readContents(join(CWD,filePath));
+        return getObject(blobID,Blob.class).getFileContent();
+    }
+    // the files of the base of a merge whose best common ancestors are bases.with several of them(criss-cross
+    // merges),they are merged one by one into a virtual base,each time on the merge base of the ones merged so far
+    // and the next one,found the same way;the lines that conflict keep both versions with conflict markers
+    private static HashMap<String,String> getMergeBaseFiles(CommitGraph graph,List<Integer> bases) throws IOException {
+        if(bases.isEmpty())return new HashMap<String,String>();
+        HashMap<String,String> baseFiles = getObject(graph.getId(bases.get(0)),Commit.class).getFilePathToBlobId();
+        for(int i = 1;i < bases.size();i++){
+            HashMap<String,String> nextFiles = getObject(graph.getId(bases.get(i)),Commit.class).getFilePathToBlobId();
+            HashMap<String,String> baseOfBases = getMergeBaseFiles(graph,graph.mergeBases(bases.subList(0,i),bases.get(i)));
+            TreeMap<String,String[]> conflicts = new TreeMap<>();
+            HashMap<String,String> virtualFiles = new HashMap<String,String>(mergeFileMaps(baseOfBases,baseFiles,nextFiles,conflicts));
+            for(Map.Entry<String,String[]> conflict : conflicts.entrySet()){
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                mergeFileContent(conflict.getValue(),content);
+                virtualFiles.put(conflict.getKey(),Blob.saveBlobOfContent(content.toByteArray(),conflict.getKey()).getBlobID());
+            }
+            baseFiles = virtualFiles;
+        }
+        return baseFiles;
+    }
+    // merge the files of other into those of current given the files of their base,and return the files the merge
+    // keeps:a file changed on one side only takes that side's version(or is gone if that side removed it).a file
+    // changed on both sides in different ways is left out and put into conflicts with its base,current and other
+    // blob ids,"" standing for a missing file,to be merged line by line
+    private static TreeMap<String,String> mergeFileMaps(Map<String,String> baseFiles,Map<String,String> currentFiles,
+                                                        Map<String,String> otherFiles,TreeMap<String,String[]> conflicts){
+        TreeSet<String> filePaths = new TreeSet<>(baseFiles.keySet());
+        filePaths.addAll(currentFiles.keySet());
+        filePaths.addAll(otherFiles.keySet());
+        TreeMap<String,String> mergedFiles = new TreeMap<>();
+        for(String filePath : filePaths){
+            String blobInSplitPoint = baseFiles.get(filePath);
+            String blobInCurrentCommit = currentFiles.get(filePath);
+            String blobInOtherCommit = otherFiles.get(filePath);
+            String mergedBlob;
+            if(Objects.equals(blobInCurrentCommit,blobInOtherCommit))mergedBlob = blobInCurrentCommit;
+            else if(Objects.equals(blobInSplitPoint,blobInCurrentCommit))mergedBlob = blobInOtherCommit;
+            else if(Objects.equals(blobInSplitPoint,blobInOtherCommit))mergedBlob = blobInCurrentCommit;
+            else{
+                String baseBlob = blobInSplitPoint == null ? "" : blobInSplitPoint;
+                String currentBlob = blobInCurrentCommit == null ? "" : blobInCurrentCommit;
+                String otherBlob = blobInOtherCommit == null ? "" : blobInOtherCommit;
+                conflicts.put(filePath,new String[]{baseBlob,currentBlob,otherBlob});
+                continue;
+            }
+            if(mergedBlob != null)mergedFiles.put(filePath,mergedBlob);
+        }
+        return mergedFiles;
+    }
+    // move the files that one side renamed since the base to their new path in the base and on the other side,so
+    // that the changes the other side made at the old path are merged into the file at the new one.a file renamed
+    // on both sides to different paths,or removed on the other side,is left where it is
+    private static void followRenames(HashMap<String,String> baseFiles,HashMap<String,String> currentFiles,
+                                      HashMap<String,String> otherFiles){
+        Map<String,String> currentRenames = invert(detectRenames(baseFiles,currentFiles));
+        Map<String,String> otherRenames = invert(detectRenames(baseFiles,otherFiles));
+        TreeSet<String> oldPaths = new TreeSet<>(currentRenames.keySet());
+        oldPaths.addAll(otherRenames.keySet());
+        for(String oldPath : oldPaths){
+            String currentPath = currentRenames.get(oldPath);
+            String otherPath = otherRenames.get(oldPath);
+            if(currentPath != null && otherPath != null){
+                if(currentPath.equals(otherPath))baseFiles.put(currentPath,baseFiles.remove(oldPath));
+                continue;
+            }
+            String newPath = currentPath != null ? currentPath : otherPath;
+            HashMap<String,String> unrenamedFiles = currentPath != null ? otherFiles : currentFiles;
+            if(!unrenamedFiles.containsKey(oldPath) || unrenamedFiles.containsKey(newPath))continue;
+            baseFiles.put(newPath,baseFiles.remove(oldPath));
+            unrenamedFiles.put(newPath,unrenamedFiles.remove(oldPath));
         }
     }
-    private static HashMap<String,String> getTotalBlobIDToFilePath(Commit commit1,Commit commit2,Commit commit3){
-        // use blobID as the totalMap's key,as the same filePath may have different BlobID in these three Map
-        HashMap<String,String> totalBlobIDToFilePath = new HashMap<String, String>();
-        HashMap<String,String> firstCommitFilePathToBlobs = commit1.getFilePathToBlobId();
-        HashMap<String,String> secondCommitFilePathToBlobs = commit2.getFilePathToBlobId();
-        HashMap<String,String> thirdCommitFilePathToBlobs = commit3.getFilePathToBlobId();
-        addToTotalBlobIDToFilePath(totalBlobIDToFilePath,firstCommitFilePathToBlobs);
-        addToTotalBlobIDToFilePath(totalBlobIDToFilePath,secondCommitFilePathToBlobs);
-        addToTotalBlobIDToFilePath(totalBlobIDToFilePath,thirdCommitFilePathToBlobs);
-        return totalBlobIDToFilePath;
+    // the renames from the files of baseFiles to the files of files,as new path to old path
+    private static Map<String,String> detectRenames(Map<String,String> baseFiles,Map<String,String> files){
+        HashMap<String,String> removed = new HashMap<>(baseFiles);
+        removed.keySet().removeAll(files.keySet());
+        HashMap<String,String> added = new HashMap<>(files);
+        added.keySet().removeAll(baseFiles.keySet());
+        return RenameDetector.detect(removed,added);
+    }
+    private static Map<String,String> invert(Map<String,String> map){
+        HashMap<String,String> inverted = new HashMap<>();
+        for(Map.Entry<String,String> entry : map.entrySet())inverted.put(entry.getValue(),entry.getKey());
+        return inverted;
     }
     public static void merge(String branchName) throws IOException {
-        Index index = readObject(INDEX,Index.class);
+        Index index = ObjectCodec.readObject(INDEX,Index.class);
         if(!index.isEmpty())exitWithError("You have uncommitted changes.");
         if(branchName.equals(getCurrentBranchFile().getName()))exitWithError("Cannot merge a branch with itself.");
         Commit currentCommit = getCurrentCommit();
         Commit otherCommit = getFrontCommitOfBranch(branchName);
-        Commit splitPoint = getSplitPoint(currentCommit,otherCommit);
-        if(currentCommit.getCommitID().equals(splitPoint.getCommitID())){
+        CommitGraph graph = CommitGraph.load();
+        int currentPosition = graph.find(currentCommit.getCommitID());
+        int otherPosition = graph.find(otherCommit.getCommitID());
+        if(graph.isAncestor(currentPosition,otherPosition)){
             checkoutFromBranch(branchName);
-            updateBranchFileTo(branchName,otherCommit.getCommitID());
+            updateBranchFileTo(branchName,otherCommit.getCommitID(),otherCommit.getCommitID());
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        if(otherCommit.getCommitID().equals(splitPoint.getCommitID())) {
+        if(graph.isAncestor(otherPosition,currentPosition)) {
             System.out.println("Given branch is an ancestor of the current branch.");
             return;
         }
-        HashMap<String,String> totalBlobIDToFilePath = getTotalBlobIDToFilePath(splitPoint,currentCommit,otherCommit);
-        boolean isConflicted = false;
-        for(Map.Entry<String,String> entry : totalBlobIDToFilePath.entrySet()){
-            String blobID = entry.getKey();
-            String filePath = entry.getValue();
-            String blobInSplitPoint = "",blobInOtherCommit = "",blobInCurrentCommit = "";
-            if(splitPoint.isThereSameFileNameTo(filePath)) blobInSplitPoint = splitPoint.getBlobIdOfFilePath(filePath);
-            if(otherCommit.isThereSameFileNameTo(filePath)) blobInOtherCommit = otherCommit.getBlobIdOfFilePath(filePath);
-            if(currentCommit.isThereSameFileNameTo(filePath)) blobInCurrentCommit = currentCommit.getBlobIdOfFilePath(filePath);
-
-            if (splitPoint.isThereSameFileNameTo(filePath) && !currentCommit.isThereSameFileNameTo(filePath) && !otherCommit.isThereSameFileNameTo(filePath)){
-                // System.out.println(filePath + "1111111111111");
-                continue;
-            }
-            if(!splitPoint.isThereSameFileNameTo(filePath) && currentCommit.isThereSameFileNameTo(filePath) && !otherCommit.isThereSameFileNameTo(filePath)){
-                // System.out.println(filePath + "2222222222222");
-                continue;
-            }
-            if(!splitPoint.isThereSameFileNameTo(filePath) && otherCommit.isThereSameFileNameTo(filePath) && !currentCommit.isThereSameFileNameTo(filePath)){
-                if(join(CWD,filePath).exists())exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
-                writeBlobIntoWorkingDir(blobID,filePath);
-                index.addFileToAdditionIndex(filePath,blobID);
-                // System.out.println(filePath + "33333333333333");
-                continue;
-            }
-            // before using filePath to get blobID,we need to check whether the filePath exist in the Map
-            if(splitPoint.isThereSameFileNameTo(filePath) && !otherCommit.isThereSameFileNameTo(filePath) &&
-                    currentCommit.isThereSameFileNameTo(filePath) && blobInSplitPoint.equals(blobInCurrentCommit)){
-                Utils.restrictedDelete(join(CWD,filePath));
-                index.addFileToRemovalIndex(filePath,blobID);
-                //System.out.println(filePath + "44444444444444444");
-                continue;
+        HashMap<String,String> baseFiles = getMergeBaseFiles(graph,graph.mergeBases(Collections.singletonList(currentPosition),otherPosition));
+        HashMap<String,String> currentFiles = currentCommit.getFilePathToBlobId();
+        HashMap<String,String> renamedCurrentFiles = new HashMap<String,String>(currentFiles);
+        HashMap<String,String> otherFiles = otherCommit.getFilePathToBlobId();
+        followRenames(baseFiles,renamedCurrentFiles,otherFiles);
+        TreeMap<String,String[]> conflicts = new TreeMap<>();
+        TreeMap<String,String> mergedFiles = mergeFileMaps(baseFiles,renamedCurrentFiles,otherFiles,conflicts);
+        // a file the merge brings in must not overwrite an untracked one,which is checked before anything is changed
+        TreeSet<String> mergedPaths = new TreeSet<>(mergedFiles.keySet());
+        mergedPaths.addAll(conflicts.keySet());
+        for(String filePath : mergedPaths){
+            if(!currentFiles.containsKey(filePath) && join(CWD,filePath).exists()){
+                exitWithError("There is an untracked file in the way; delete it, or add and commit it first.");
             }
-            if(splitPoint.isThereSameFileNameTo(filePath) && !currentCommit.isThereSameFileNameTo(filePath) &&
-                    otherCommit.isThereSameFileNameTo(filePath) && blobInSplitPoint.equals(blobInOtherCommit)){
-                //System.out.println(filePath + "5555555555555555555");
-                continue;
-            }
-            if(splitPoint.isThereSameFileNameTo(filePath) && otherCommit.isThereSameFileNameTo(filePath) &&
-                    currentCommit.isThereSameFileNameTo(filePath)){
-                if(!blobInOtherCommit.equals(blobInSplitPoint) && blobInCurrentCommit.equals(blobInSplitPoint)){
-                    // change the file in the working directory to the version in the otherCommit
-                    writeBlobIntoWorkingDir(blobInOtherCommit,filePath);
-                    index.addFileToAdditionIndex(filePath,blobInOtherCommit);
-                 //   System.out.println(filePath + "6666666666666666");
-                    continue;
-                }
-                if(blobInOtherCommit.equals(blobInSplitPoint) && !blobInCurrentCommit.equals(blobInSplitPoint)){
-                  //  System.out.println(filePath + "777777777777777777");
-                    continue;
-                }
-                if(!blobInOtherCommit.equals(blobInSplitPoint) && !blobInCurrentCommit.equals(blobInSplitPoint) && blobInCurrentCommit.equals(blobInOtherCommit)){
-                   // System.out.println(filePath + "8888888888888888888");
-                    continue;
-                }
-                if(!blobInOtherCommit.equals(blobInSplitPoint) && !blobInCurrentCommit.equals(blobInSplitPoint) && !blobInCurrentCommit.equals(blobInOtherCommit)){
-                    mergeConflict(filePath,false, blobInCurrentCommit,false,blobInOtherCommit);
-                    //System.out.println(filePath + "99999999999999999999");
-                    isConflicted = true;
-                    continue;
-                }
-            }
-            if(splitPoint.isThereSameFileNameTo(filePath)){
-                //System.out.println(filePath + "***********************");
-                if(!currentCommit.isThereSameFileNameTo(filePath) && otherCommit.isThereSameFileNameTo(filePath) &&
-                        !blobInOtherCommit.equals(blobInSplitPoint)){
-                    isConflicted = true;
-
-                    mergeConflict(filePath,true,"",false,blobInOtherCommit);
-                }
-                if(!otherCommit.isThereSameFileNameTo(filePath) && currentCommit.isThereSameFileNameTo(filePath) &&
-                        !blobInCurrentCommit.equals(blobInSplitPoint)){
-                    isConflicted = true;
-                    mergeConflict(filePath,false,blobInCurrentCommit,true,"");
-                }
-                continue;
-            }else if(currentCommit.isThereSameFileNameTo(filePath) && otherCommit.isThereSameFileNameTo(filePath) &&
-                    !blobInCurrentCommit.equals(blobInOtherCommit)) {
-                //System.out.println(filePath + "&&&&&&&&&&&&&&&&&&&");
-                isConflicted = true;
-                mergeConflict(filePath, false, blobInCurrentCommit, false, blobInOtherCommit);
+        }
+        for(Map.Entry<String,String> entry : currentFiles.entrySet()){
+            String filePath = entry.getKey();
+            if(mergedFiles.containsKey(filePath) || conflicts.containsKey(filePath))continue;
+            deleteWorkingFile(filePath);
+            index.addFileToRemovalIndex(filePath,entry.getValue());
+        }
+        for(Map.Entry<String,String> entry : mergedFiles.entrySet()){
+            String filePath = entry.getKey();
+            String blobID = entry.getValue();
+            if(blobID.equals(currentFiles.get(filePath)))continue;
+            // change the file in the working directory to the version in the otherCommit
+            writeBlobIntoWorkingDir(blobID,filePath);
+            index.addFileToAdditionIndex(filePath,blobID);
+        }
+        writeIndex(index);
+        // the files changed on both sides are merged line by line,and staged as they are then in the working
+        // directory,with conflict markers around the lines that conflict
+        boolean conflicted = false;
+        for(Map.Entry<String,String[]> conflict : conflicts.entrySet()){
+            File file = join(CWD,conflict.getKey());
+            file.getParentFile().mkdirs();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                if(mergeFileContent(conflict.getValue(),out))conflicted = true;
             }
         }
-        if(isConflicted) System.out.println("Encountered a merge conflict.");
+        if(!conflicts.isEmpty())addFiles(new ArrayList<String>(conflicts.keySet()));
+        if(conflicted)System.out.println("Encountered a merge conflict.");
         String currentBranchName = getCurrentBranchFile().getName();
         String commitMessage = "Merged " + branchName + " into " + currentBranchName + ".";
-        writeObject(INDEX,index);
         commit(commitMessage,true,otherCommit.getCommitID());
     }
-    private static void mergeConflict(String conflictFileName,boolean curBlobEmpty,String currentBlobID,boolean otherBlobEmpty,String otherBlobID) throws IOException {
-        File conflictFile = join(CWD,conflictFileName);
-        String contentInCurrentBranch;
-        String contentInOtherBranch;
-        if(curBlobEmpty) contentInCurrentBranch = "";
-        else contentInCurrentBranch = getObject(currentBlobID,Blob.class).getFileContentInString();
-        if(otherBlobEmpty)contentInOtherBranch = "";
-        else contentInOtherBranch = getObject(otherBlobID,Blob.class).getFileContentInString();
-        writeContents(conflictFile,"<<<<<<< HEAD\n" + contentInCurrentBranch + "=======\n" + contentInOtherBranch + ">>>>>>>\n");
-        addFile(conflictFileName);}
+    // write the three-way merge of the base,current and other versions of a file with the blob ids blobIDs into
+    // out,"" standing for a missing version,and return whether any lines conflict.a binary file,or one with a version
+    // larger than MERGE_LINE_LIMIT,conflicts as a whole,without its versions being read into memory
+    private static boolean mergeFileContent(String[] blobIDs,OutputStream out) throws IOException {
+        for(String blobID : blobIDs){
+            if(!blobID.isEmpty() && getObject(blobID,Blob.class).getSize() > MERGE_LINE_LIMIT){
+                writeWholeFileConflict(blobIDs,out);
+                return true;
+            }
+        }
+        byte[] baseContent = mergeContent(blobIDs[0]);
+        byte[] currentContent = mergeContent(blobIDs[1]);
+        byte[] otherContent = mergeContent(blobIDs[2]);
+        if(LineDiff.isBinary(baseContent) || LineDiff.isBinary(currentContent) || LineDiff.isBinary(otherContent)){
+            writeWholeFileConflict(blobIDs,out);
+            return true;
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out,StandardCharsets.UTF_8));
+        boolean conflicted = LineMerge.merge(LineDiff.splitLines(baseContent),LineDiff.splitLines(currentContent),
+                LineDiff.splitLines(otherContent),writer);
+        writer.flush();
+        return conflicted;
+    }
+    // write both the current and the other version of a file between conflict markers into out,streamed from their blobs
+    private static void writeWholeFileConflict(String[] blobIDs,OutputStream out) throws IOException {
+        out.write("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+        writeMergeContent(blobIDs[1],out);
+        out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+        writeMergeContent(blobIDs[2],out);
+        out.write(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+    }
+    private static void writeMergeContent(String blobID,OutputStream out) throws IOException {
+        if(blobID.isEmpty())return;
+        try (InputStream in = getObject(blobID,Blob.class).openContent()) {
+            in.transferTo(out);
+        }
+    }
+    private static byte[] mergeContent(String blobID){
+        if(blobID.isEmpty())return new byte[0];
+        return getObject(blobID,Blob.class).getFileContent();
+    }
 }
-
@@ -0,0 +1,66 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/** The lock that lets several gitlet processes work on one repository.
+ *
+ *  Every command holds a lock on .gitlet/lock for as long as it runs.
+ *  Commands that only read, such as log, find and status, share it and run
+ *  side by side; commands that write objects, move a ref or change what is
+ *  staged hold it alone, so they run one at a time and never while another
+ *  command is reading. The only things a reader writes are caches: find
+ *  brings a message index that a crash left behind up to date, and status
+ *  keeps the stat data of the files it hashed. Both take the lock alone for
+ *  that, find waiting for it and status only if it is free at once.
+ *
+ *  It is a FileChannel lock, which the operating system drops when the
+ *  process ends, however it ends, so a command that crashed never leaves
+ *  the repository locked.
+ *
+ *  @author BoLee
+ */
+class RepositoryLock {
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    /** Waits until the lock is free to take, shared with other readers if
+     *  SHARED, and takes it until the process ends. */
+    static void acquire(boolean shared) throws IOException {
+        if (lock != null) {
+            throw Utils.error("The repository is already locked.");
+        }
+        channel = FileChannel.open(Repository.LOCK.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock = channel.lock(0, Long.MAX_VALUE, shared);
+    }
+
+    /** Makes sure this process holds the lock alone, waiting for the
+     *  readers that share it to finish. A shared lock cannot be turned
+     *  into an exclusive one in place, so another command may have changed
+     *  the repository in between, and what was read before has to be read
+     *  again. */
+    static void upgrade() throws IOException {
+        if (lock == null || !lock.isShared()) {
+            return;
+        }
+        lock.release();
+        lock = channel.lock(0, Long.MAX_VALUE, false);
+    }
+
+    /** Like upgrade, but only if no other process holds the lock right
+     *  now, and returns whether this process holds it alone. If it does
+     *  not, it is left without any lock, so this is only called for the
+     *  last thing a command does. A process that never took the lock,
+     *  as init does not, counts as holding it alone. */
+    static boolean tryUpgrade() throws IOException {
+        if (lock == null || !lock.isShared()) {
+            return true;
+        }
+        lock.release();
+        lock = channel.tryLock(0, Long.MAX_VALUE, false);
+        return lock != null;
+    }
+}
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** An on-disk set of fixed-size records, looked up by a prefix of their
+ *  bytes, that grows by appends and never has to be rewritten per update.
+ *
+ *  X:       "GSIX" | version | record size | fanout[256] | sorted records
+ *  X.tail:  "GSIT" | version | record size | covered | records...
+ *
+ *  The main file is sorted (as unsigned bytes) and searched like the index
+ *  of a pack: fanout[b] is the number of records whose first byte is <= b,
+ *  and a binary search runs within that range. New records are appended to
+ *  the unsorted tail, which every lookup scans; once it holds MAX_TAIL
+ *  records it is merged into a new main file in one sequential pass, so
+ *  the cost of keeping the main file sorted is spread over MAX_TAIL
+ *  appends.
+ *
+ *  The tail also remembers how much of the source the records were made
+ *  from has been covered, so the owner can add what is missing after a
+ *  crash. A record may then be added twice, so lookups can return
+ *  duplicates.
+ *
+ *  @author BoLee
+ */
+class SortedIndexFile {
+    private static final int MAIN_MAGIC = 0x47534958;
+    private static final int TAIL_MAGIC = 0x47534954;
+    private static final int VERSION = 1;
+    private static final int FANOUT_SIZE = 256;
+    // magic | version | record size
+    private static final int HEADER_SIZE = 6;
+    private static final int MAIN_RECORDS_OFFSET = HEADER_SIZE + 4 * FANOUT_SIZE;
+    private static final int COVERED_OFFSET = HEADER_SIZE;
+    private static final int TAIL_RECORDS_OFFSET = HEADER_SIZE + 8;
+    // tail records are scanned by every lookup,so the tail is kept to a size that is read in about a millisecond
+    static final int MAX_TAIL = 64 * 1024;
+
+    private final File mainFile;
+    private final File tailFile;
+    private final int recordSize;
+    private MappedByteBuffer main;
+
+    SortedIndexFile(File mainFile, int recordSize) {
+        this.mainFile = mainFile;
+        this.tailFile = new File(mainFile.getPath() + ".tail");
+        this.recordSize = recordSize;
+    }
+
+    /** Returns how much of the source has been covered, 0 at first. */
+    long getCovered() throws IOException {
+        if (!tailFile.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile tail = new RandomAccessFile(tailFile, "r")) {
+            checkHeader(tail, TAIL_MAGIC, tailFile);
+            tail.seek(COVERED_OFFSET);
+            return tail.readLong();
+        }
+    }
+
+    /** Adds RECORDS, which now cover the source up to COVERED. */
+    void append(List<byte[]> records, long covered) throws IOException {
+        if (!tailFile.exists()) {
+            writeEmptyTail(covered);
+        }
+        long tailRecords;
+        try (RandomAccessFile tail = new RandomAccessFile(tailFile, "rw")) {
+            checkHeader(tail, TAIL_MAGIC, tailFile);
+            // a record cut short by a crash is overwritten
+            tailRecords = (tail.length() - TAIL_RECORDS_OFFSET) / recordSize;
+            byte[] bytes = new byte[records.size() * recordSize];
+            for (int i = 0; i < records.size(); i += 1) {
+                System.arraycopy(records.get(i), 0, bytes, i * recordSize, recordSize);
+            }
+            tail.seek(TAIL_RECORDS_OFFSET + tailRecords * recordSize);
+            tail.write(bytes);
+            tail.setLength(tail.getFilePointer());
+            // the records are in place before they count as covered
+            tail.seek(COVERED_OFFSET);
+            tail.writeLong(covered);
+        }
+        if (tailRecords + records.size() >= MAX_TAIL) {
+            merge(covered);
+        }
+    }
+
+    /** Returns every record that starts with PREFIX, which is at least one
+     *  byte long: those of the main file in order, then those of the tail. */
+    List<byte[]> find(byte[] prefix) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        MappedByteBuffer records = getMain();
+        if (records != null) {
+            int firstByte = prefix[0] & 0xff;
+            int lo = firstByte == 0 ? 0 : fanout(records, firstByte - 1);
+            int hi = fanout(records, firstByte);
+            // the first record that is not smaller than prefix
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareAt(records, mid, prefix) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int count = fanout(records, FANOUT_SIZE - 1);
+            for (int i = lo; i < count && compareAt(records, i, prefix) == 0; i += 1) {
+                byte[] record = new byte[recordSize];
+                records.get(MAIN_RECORDS_OFFSET + i * recordSize, record);
+                result.add(record);
+            }
+        }
+        for (byte[] record : readTail()) {
+            if (Arrays.equals(record, 0, prefix.length, prefix, 0, prefix.length)) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    private MappedByteBuffer getMain() throws IOException {
+        if (main == null && mainFile.exists()) {
+            try (FileChannel channel = FileChannel.open(mainFile.toPath())) {
+                main = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (main.getInt(0) != MAIN_MAGIC || main.get(4) != VERSION || main.get(5) != (byte) recordSize) {
+                throw Utils.error("Corrupted index %s.", mainFile.getName());
+            }
+        }
+        return main;
+    }
+
+    private static int fanout(ByteBuffer records, int firstByte) {
+        return records.getInt(HEADER_SIZE + 4 * firstByte);
+    }
+
+    // compare the start of record i of the main file with PREFIX, as unsigned bytes
+    private int compareAt(ByteBuffer records, int i, byte[] prefix) {
+        int base = MAIN_RECORDS_OFFSET + i * recordSize;
+        for (int k = 0; k < prefix.length; k += 1) {
+            int diff = (records.get(base + k) & 0xff) - (prefix[k] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private List<byte[]> readTail() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        if (!tailFile.exists()) {
+            return records;
+        }
+        byte[] bytes = Files.readAllBytes(tailFile.toPath());
+        for (int offset = TAIL_RECORDS_OFFSET; offset + recordSize <= bytes.length; offset += recordSize) {
+            records.add(Arrays.copyOfRange(bytes, offset, offset + recordSize));
+        }
+        return records;
+    }
+
+    /** Writes the records of the main file and of the tail into a new main
+     *  file, and empties the tail. */
+    private void merge(long covered) throws IOException {
+        List<byte[]> tailRecords = readTail();
+        tailRecords.sort(Arrays::compareUnsigned);
+        MappedByteBuffer records = getMain();
+        int mainCount = records == null ? 0 : fanout(records, FANOUT_SIZE - 1);
+        int[] fanout = new int[FANOUT_SIZE];
+        for (int b = 0; b < FANOUT_SIZE; b += 1) {
+            fanout[b] = records == null ? 0 : fanout(records, b);
+        }
+        for (byte[] record : tailRecords) {
+            for (int b = record[0] & 0xff; b < FANOUT_SIZE; b += 1) {
+                fanout[b] += 1;
+            }
+        }
+        File tmpFile = AtomicFile.newTempFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024))) {
+            out.writeInt(MAIN_MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(recordSize);
+            for (int count : fanout) {
+                out.writeInt(count);
+            }
+            byte[] mainRecord = new byte[recordSize];
+            int i = 0;
+            int j = 0;
+            while (i < mainCount || j < tailRecords.size()) {
+                if (i < mainCount) {
+                    records.get(MAIN_RECORDS_OFFSET + i * recordSize, mainRecord);
+                }
+                if (j == tailRecords.size() || (i < mainCount && Arrays.compareUnsigned(mainRecord, tailRecords.get(j)) <= 0)) {
+                    out.write(mainRecord);
+                    i += 1;
+                } else {
+                    out.write(tailRecords.get(j));
+                    j += 1;
+                }
+            }
+        }
+        AtomicFile.install(tmpFile, mainFile);
+        main = null;
+        writeEmptyTail(covered);
+    }
+
+    // a tail is replaced as a whole,so it is never seen without its header
+    private void writeEmptyTail(long covered) throws IOException {
+        File tmpFile = AtomicFile.newTempFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile))) {
+            out.writeInt(TAIL_MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(recordSize);
+            out.writeLong(covered);
+        }
+        AtomicFile.install(tmpFile, tailFile);
+    }
+
+    private void checkHeader(RandomAccessFile file, int magic, File name) throws IOException {
+        if (file.length() < TAIL_RECORDS_OFFSET || file.readInt() != magic
+                || file.readByte() != VERSION || file.readByte() != (byte) recordSize) {
+            throw Utils.error("Corrupted index %s.", name.getName());
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** The bytes of an object exactly as they are stored, as a range of the
+ *  file that holds them: a whole loose object file, or the data of a whole
+ *  entry of a pack.
+ *
+ *  When an object is stored uncompressed its content sits at a known offset
+ *  of this range, so it can be copied into the working directory with
+ *  FileChannel.transferTo, which lets the kernel move the bytes from file
+ *  to file without them passing through the Java heap.
+ *
+ *  @author BoLee
+ */
+class StoredRegion implements Closeable {
+    private final FileChannel channel;
+    private final long start;
+    private final long length;
+    // a loose object has its own channel, a pack entry shares the channel of its pack
+    private final boolean ownsChannel;
+
+    StoredRegion(FileChannel channel, long start, long length, boolean ownsChannel) {
+        this.channel = channel;
+        this.start = start;
+        this.length = length;
+        this.ownsChannel = ownsChannel;
+    }
+
+    /** Returns the region of the whole of FILE. */
+    static StoredRegion ofFile(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath());
+        return new StoredRegion(channel, 0, channel.size(), true);
+    }
+
+    long length() {
+        return length;
+    }
+
+    /** Returns the first bytes of the region, at most MAX of them. */
+    byte[] readHead(int max) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(max, length));
+        while (head.hasRemaining()) {
+            if (channel.read(head, start + head.position()) < 0) {
+                throw Utils.error("Truncated object.");
+            }
+        }
+        return head.array();
+    }
+
+    /** Copies COUNT bytes of the region from OFFSET on into TARGET. The
+     *  channel is read at its own position, so regions of one pack can be
+     *  copied by several threads at once. */
+    void transferTo(long offset, long count, FileChannel target) throws IOException {
+        if (offset + count > length) {
+            throw Utils.error("Truncated object.");
+        }
+        long position = start + offset;
+        long end = position + count;
+        while (position < end) {
+            long n = channel.transferTo(position, end - position, target);
+            if (n <= 0) {
+                throw Utils.error("Truncated object.");
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Represents a gitlet tree object: the files and subdirectories of one
+ *  directory of a commit, by name.
+ *
+ *  A tree refers to its files by blob id and to its subdirectories by the id
+ *  of their trees, and its own id is the hash of its content, so two
+ *  commits whose directory holds the same files share its tree and every
+ *  tree below it. A commit only stores new trees for the directories on the
+ *  paths it changes, and two commits are compared by skipping every
+ *  subdirectory whose tree id is the same on both sides.
+ *
+ *  @author BoLee
+ */
+public class Tree implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int CODEC_VERSION = 1;
+    private static final byte FILE = 0;
+    private static final byte DIRECTORY = 1;
+    // file name to blob id,and subdirectory name to tree id
+    private final TreeMap<String,String> blobs;
+    private final TreeMap<String,String> subtrees;
+
+    Tree(TreeMap<String,String> blobs,TreeMap<String,String> subtrees){
+        this.blobs = blobs;
+        this.subtrees = subtrees;
+    }
+    /** Called with every path whose file differs between two trees,with its blob id on either side(null for none). */
+    interface DiffVisitor {
+        void visit(String filePath,String oldBlobID,String newBlobID);
+    }
+    // store the trees of a whole filePath to blob id map,and return the id of the root tree
+    public static String write(Map<String,String> filePathToBlobId) throws IOException {
+        HashMap<String,String> additions = new HashMap<>(filePathToBlobId);
+        return update(null,additions,new TreeSet<>());
+    }
+    // store the trees of the tree treeID(null for an empty one) with the files in additions put in and the files
+    // in removals taken out,and return the id of the new root tree.only the directories on the paths that change
+    // get new trees,every other subdirectory keeps its tree
+    public static String update(String treeID,Map<String,String> additions,Set<String> removals) throws IOException {
+        Tree tree = treeID == null ? new Tree(new TreeMap<>(),new TreeMap<>()) : Repository.getObject(treeID,Tree.class);
+        Tree updated = tree.updated(additions,removals);
+        return updated.save();
+    }
+    private Tree updated(Map<String,String> additions,Set<String> removals) throws IOException {
+        TreeMap<String,String> newBlobs = new TreeMap<>(blobs);
+        TreeMap<String,String> newSubtrees = new TreeMap<>(subtrees);
+        // the changes below each subdirectory,by the name of the subdirectory
+        TreeMap<String,Map<String,String>> subAdditions = new TreeMap<>();
+        TreeMap<String,Set<String>> subRemovals = new TreeMap<>();
+        for(Map.Entry<String,String> entry : additions.entrySet()){
+            String filePath = entry.getKey();
+            int slash = filePath.indexOf('/');
+            if(slash < 0)newBlobs.put(filePath,entry.getValue());
+            else subAdditions.computeIfAbsent(filePath.substring(0,slash),name -> new HashMap<>())
+                    .put(filePath.substring(slash + 1),entry.getValue());
+        }
+        for(String filePath : removals){
+            int slash = filePath.indexOf('/');
+            if(slash < 0)newBlobs.remove(filePath);
+            else subRemovals.computeIfAbsent(filePath.substring(0,slash),name -> new TreeSet<>())
+                    .add(filePath.substring(slash + 1));
+        }
+        TreeSet<String> changedDirs = new TreeSet<>(subAdditions.keySet());
+        changedDirs.addAll(subRemovals.keySet());
+        for(String name : changedDirs){
+            String subtreeID = subtrees.get(name);
+            Tree subtree = subtreeID == null ? new Tree(new TreeMap<>(),new TreeMap<>()) : Repository.getObject(subtreeID,Tree.class);
+            Tree updated = subtree.updated(subAdditions.getOrDefault(name,new HashMap<>()),subRemovals.getOrDefault(name,new TreeSet<>()));
+            // a directory that is left without files is dropped
+            if(updated.isEmpty())newSubtrees.remove(name);
+            else newSubtrees.put(name,updated.save());
+        }
+        return new Tree(newBlobs,newSubtrees);
+    }
+    private boolean isEmpty(){
+        return blobs.isEmpty() && subtrees.isEmpty();
+    }
+    // store this tree unless it is stored already,and return its id
+    private String save() throws IOException {
+        byte[] encoded = ObjectCodec.encode(this);
+        String treeID = Utils.sha1(encoded);
+        Repository.saveObject(treeID,encoded);
+        return treeID;
+    }
+    // put every file under the tree treeID into filePathToBlobId,with prefix in front of its path
+    public static void flatten(String treeID,String prefix,Map<String,String> filePathToBlobId){
+        Tree tree = Repository.getObject(treeID,Tree.class);
+        for(Map.Entry<String,String> entry : tree.blobs.entrySet()){
+            filePathToBlobId.put(prefix + entry.getKey(),entry.getValue());
+        }
+        for(Map.Entry<String,String> entry : tree.subtrees.entrySet()){
+            flatten(entry.getValue(),prefix + entry.getKey() + "/",filePathToBlobId);
+        }
+    }
+    // the blob id of the file at filePath under the tree treeID,or null if there is no such file;
+    // only the trees of the directories on the path are read
+    public static String lookup(String treeID,String filePath){
+        Tree tree = Repository.getObject(treeID,Tree.class);
+        int slash = filePath.indexOf('/');
+        while(slash >= 0){
+            String subtreeID = tree.subtrees.get(filePath.substring(0,slash));
+            if(subtreeID == null)return null;
+            tree = Repository.getObject(subtreeID,Tree.class);
+            filePath = filePath.substring(slash + 1);
+            slash = filePath.indexOf('/');
+        }
+        return tree.blobs.get(filePath);
+    }
+    // call visitor on every file that differs between the trees oldTreeID and newTreeID(either may be null for an
+    // empty tree),in path order.a subdirectory with the same tree on both sides is skipped without being read
+    public static void diff(String oldTreeID,String newTreeID,DiffVisitor visitor){
+        diff(oldTreeID,newTreeID,"",visitor);
+    }
+    private static void diff(String oldTreeID,String newTreeID,String prefix,DiffVisitor visitor){
+        if(oldTreeID != null && oldTreeID.equals(newTreeID))return;
+        Tree oldTree = oldTreeID == null ? new Tree(new TreeMap<>(),new TreeMap<>()) : Repository.getObject(oldTreeID,Tree.class);
+        Tree newTree = newTreeID == null ? new Tree(new TreeMap<>(),new TreeMap<>()) : Repository.getObject(newTreeID,Tree.class);
+        TreeSet<String> names = new TreeSet<>(oldTree.blobs.keySet());
+        names.addAll(newTree.blobs.keySet());
+        names.addAll(oldTree.subtrees.keySet());
+        names.addAll(newTree.subtrees.keySet());
+        for(String name : names){
+            String oldBlobID = oldTree.blobs.get(name);
+            String newBlobID = newTree.blobs.get(name);
+            if(oldBlobID == null ? newBlobID != null : !oldBlobID.equals(newBlobID)){
+                visitor.visit(prefix + name,oldBlobID,newBlobID);
+            }
+            String oldSubtreeID = oldTree.subtrees.get(name);
+            String newSubtreeID = newTree.subtrees.get(name);
+            if(oldSubtreeID != null || newSubtreeID != null){
+                diff(oldSubtreeID,newSubtreeID,prefix + name + "/",visitor);
+            }
+        }
+    }
+    // a rough number of bytes this tree takes in memory,for the object cache
+    long memoryFootprint(){
+        long footprint = 100;
+        for(String name : blobs.keySet())footprint += 200 + 2L * name.length();
+        for(String name : subtrees.keySet())footprint += 200 + 2L * name.length();
+        return footprint;
+    }
+    // entry count | (kind | name | id)... sorted by name,a file before a subdirectory of the same name
+    void encode(DataOutputStream out) throws IOException {
+        TreeSet<String> names = new TreeSet<>(blobs.keySet());
+        names.addAll(subtrees.keySet());
+        ObjectCodec.writeVarint(out,blobs.size() + subtrees.size());
+        for(String name : names){
+            if(blobs.containsKey(name)){
+                out.writeByte(FILE);
+                ObjectCodec.writeString(out,name);
+                ObjectCodec.writeId(out,blobs.get(name));
+            }
+            if(subtrees.containsKey(name)){
+                out.writeByte(DIRECTORY);
+                ObjectCodec.writeString(out,name);
+                ObjectCodec.writeId(out,subtrees.get(name));
+            }
+        }
+    }
+    static Tree decode(DataInputStream in,int version) throws IOException {
+        if(version != CODEC_VERSION)throw new IOException("unsupported tree version " + version);
+        int count = (int) ObjectCodec.readVarint(in);
+        TreeMap<String,String> blobs = new TreeMap<>();
+        TreeMap<String,String> subtrees = new TreeMap<>();
+        for(int i = 0;i < count;i++){
+            byte kind = in.readByte();
+            String name = ObjectCodec.readString(in);
+            String id = ObjectCodec.readId(in);
+            if(kind == FILE)blobs.put(name,id);
+            else if(kind == DIRECTORY)subtrees.put(name,id);
+            else throw new IOException("unknown tree entry kind " + kind);
+        }
+        return new Tree(blobs,subtrees);
+    }
+}
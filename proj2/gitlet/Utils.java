@@ -58,6 +58,25 @@ class Utils {
         }
     }
 
+    /** Returns a fresh SHA-1 digest, for hashing contents that are fed to
+     *  it piece by piece. */
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the SHA-1 UID of everything fed to MD so far. */
+    static String sha1(MessageDigest md) {
+        Formatter result = new Formatter();
+        for (byte b : md.digest()) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -223,6 +242,34 @@ class Utils {
         }
     }
 
+    /* OBJECT IDS */
+
+    /** Returns the 20 raw bytes of the hexadecimal UID ID. */
+    static byte[] idToBytes(String id) {
+        byte[] result = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                    | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal UID whose raw bytes are the 20 bytes of
+     *  BYTES starting at OFFSET. */
+    static String bytesToId(byte[] bytes, int offset) {
+        /* Called for every path of every commit and index that is read,
+         * so this avoids the cost of a Formatter. */
+        char[] result = new char[UID_LENGTH];
+        for (int i = 0; i < UID_LENGTH / 2; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = HEX_DIGITS[b >>> 4];
+            result[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(result);
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
 
 
     /* MESSAGES AND ERROR REPORTING */
@@ -0,0 +1,70 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Lists the files of the working directory together with their stat data.
+ *
+ *  Every directory is a fork-join task that stats its files and forks a
+ *  task per subdirectory, so a large tree is listed on all cores. Paths
+ *  are relative to the working directory and use '/' as the separator,
+ *  the way they are stored in commits. The .gitlet directory is skipped,
+ *  and symbolic links to directories are not followed.
+ *
+ *  @author BoLee
+ */
+class WorktreeScanner {
+    private static final String GITLET_DIR_NAME = ".gitlet";
+
+    /** Returns the stat data of every regular file under ROOT, sorted by
+     *  path. */
+    static ConcurrentSkipListMap<String, FileStat> scan(File root) {
+        ConcurrentSkipListMap<String, FileStat> files = new ConcurrentSkipListMap<>();
+        ForkJoinPool.commonPool().invoke(new DirectoryTask(root, "", files));
+        return files;
+    }
+
+    private static class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final File dir;
+        // the path of dir relative to the root,ending with '/' unless it is the root itself
+        private final String prefix;
+        private final ConcurrentSkipListMap<String, FileStat> files;
+
+        DirectoryTask(File dir, String prefix, ConcurrentSkipListMap<String, FileStat> files) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            File[] entries = dir.listFiles();
+            if (entries == null) {
+                return;
+            }
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            for (File entry : entries) {
+                String path = prefix + entry.getName();
+                if (Files.isDirectory(entry.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                    if (prefix.isEmpty() && entry.getName().equals(GITLET_DIR_NAME)) {
+                        continue;
+                    }
+                    subdirectories.add(new DirectoryTask(entry, path + "/", files));
+                    continue;
+                }
+                FileStat stat = FileStat.read(entry);
+                if (stat != null) {
+                    files.put(path, stat);
+                }
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}